@@ -0,0 +1,14 @@
+package net.chakmeshma.brain;
+
+/**
+ * Backs {@code VIRTUAL_NEURON_THREAD} neurons with virtual threads. Lives in the {@code loom}
+ * source set because it needs Java 21; {@link Brain} loads it by name.
+ */
+final class VirtualNeuronThreadFactory implements NeuronThreadFactory {
+    private final Thread.Builder builder = Thread.ofVirtual();
+
+    @Override
+    public Thread newThread(Runnable actor, String threadName) {
+        return this.builder.name(threadName).unstarted(actor);
+    }
+}
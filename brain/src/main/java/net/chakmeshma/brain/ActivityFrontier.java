@@ -0,0 +1,133 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pair of neuron bitsets marking which neurons have to be visited by the current and by the next
+ * tick.
+ * <p>
+ * A neuron is in the frontier while its state would change on an update without input, or when it
+ * has received input. Neurons at their resting fixed point are simply absent and cost nothing to a
+ * sweep that walks the set bits. Partition boundaries need not be word aligned, so bits are set
+ * and cleared with CAS; a word is only written when its bits actually change.
+ */
+final class ActivityFrontier {
+    private final int count;
+    private AtomicLongArray current;
+    private AtomicLongArray next;
+
+    ActivityFrontier(int count) {
+        this.count = count;
+        this.current = new AtomicLongArray(wordCount(count));
+        this.next = new AtomicLongArray(wordCount(count));
+
+        wakeAll();
+    }
+
+    static int wordCount(int count) {
+        return (count + 63) >>> 6;
+    }
+
+    /**
+     * Whether neuron {@code i} sits at its resting fixed point: not refractory, no spike flag to
+     * clear, and a potential that neither decays any further nor reaches the threshold.
+     */
+    static boolean isResting(NeuronStore store, int i) {
+        float potential = store.potential[i];
+
+        return store.refractory[i] == 0 && store.fired[i] == 0 && potential * store.decay == potential && potential < store.threshold[i];
+    }
+
+    int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Adds neuron {@code i} to the frontier of the current tick.
+     */
+    void wake(int i) {
+        set(this.current, i);
+    }
+
+    void wakeAll() {
+        for (int w = 0, words = this.current.length(); w < words; w++)
+            this.current.set(w, w == words - 1 && (this.count & 63) != 0 ? (1L << (this.count & 63)) - 1 : -1L);
+    }
+
+    /**
+     * Adds neuron {@code i} to the frontier of the next tick.
+     */
+    void markNext(int i) {
+        set(this.next, i);
+    }
+
+    /**
+     * Returns the bits of word {@code word} of the current frontier that fall in
+     * {@code [from, to)}.
+     */
+    long currentBits(int word, int from, int to) {
+        return this.current.get(word) & rangeMask(word, from, to);
+    }
+
+    /**
+     * Clears and returns the bits of word {@code word} of the current frontier that fall in
+     * {@code [from, to)}.
+     */
+    long takeCurrentBits(int word, int from, int to) {
+        long mask = rangeMask(word, from, to);
+
+        while (true) {
+            long bits = this.current.get(word);
+
+            if ((bits & mask) == 0 || this.current.compareAndSet(word, bits, bits & ~mask))
+                return bits & mask;
+        }
+    }
+
+    /**
+     * Makes the next frontier current. Must only be called between ticks, once every bit of the
+     * current frontier has been taken.
+     */
+    void swap() {
+        AtomicLongArray current = this.current;
+
+        this.current = this.next;
+        this.next = current;
+    }
+
+    /**
+     * Number of neurons in the current frontier.
+     */
+    int size() {
+        int size = 0;
+
+        for (int w = 0, words = this.current.length(); w < words; w++)
+            size += Long.bitCount(this.current.get(w));
+
+        return size;
+    }
+
+    private static long rangeMask(int word, int from, int to) {
+        int base = word << 6;
+        long mask = -1L;
+
+        if (from > base)
+            mask &= -1L << (from - base);
+        if (to < base + 64)
+            mask &= (1L << (to - base)) - 1;
+
+        return mask;
+    }
+
+    private static void set(AtomicLongArray words, int i) {
+        int word = i >>> 6;
+        long bit = 1L << i;
+
+        while (true) {
+            long bits = words.get(word);
+
+            if ((bits & bit) != 0 || words.compareAndSet(word, bits, bits | bit))
+                return;
+        }
+    }
+}
@@ -1,7 +1,15 @@
 package net.chakmeshma.brain;
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
 public class Brain {
     private static final ThreadType DEFAULT_NEURON_THREAD_TYPE = ThreadType.NEURON_THREAD;
+    private static final ExecutionMode DEFAULT_EXECUTION_MODE = ExecutionMode.POOLED;
     private static final int DEFAULT_THRESHOLD = 1;
     private static final int DEFAULT_X_LOCATION = 0;
     private static final int DEFAULT_Y_LOCATION = 0;
@@ -9,33 +17,980 @@ public class Brain {
     private Object lastCreatedThread_Monitor;
     private boolean lastCreatedThreadRunning;
     private Neuron neurons[];
+    // replaced when live topology edits add neurons beyond its count
+    private NeuronStore store;
+    private volatile SynapseGraph synapses;
+    // set once a fork holds the same graph, whose weights then must not change in place
+    private boolean synapsesShared;
     private int nextThreshold;
     private int nextZLocation;
     private int nextYLocation;
     private int nextXLocation;
     private Object lastCreatedThreadInput;
+    private final ExecutionMode executionMode;
+    private TickScheduler scheduler;
+    private SpikeRouter spikeRouter;
+    private DeterministicEngine deterministicEngine;
+    private PlasticityEngine plasticity;
+    private ProceduralSynapses procedural;
+    private FeedForwardNetwork network;
+    private FeedForwardNetwork.Workspace networkWorkspace;
+    // set once a fork or an inference server holds the same network, whose weights then must not
+    // be trained in place
+    private boolean networkShared;
+    private NetworkTrainer networkTrainer;
+    private EventDrivenEngine eventEngine;
+    private NeuronMailboxes mailboxes;
+    private NeuronThreadFactory virtualThreadFactory;
+    private TimingWheel pendingInput;
+    private final StimulusBuffer stimuli;
+    private final TopologyLog topologyLog;
+    private Topology topology;
+    private HybridPolicy hybridPolicy;
+    private MeanFieldPopulations populations;
+    private long currentTick;
+    private final TimingWheel.PendingVisitor stimulusSink = new TimingWheel.PendingVisitor() {
+        @Override
+        public void visit(long deliveryTick, int target, float weight) {
+            schedule(Math.max(deliveryTick, Brain.this.currentTick), target, weight);
+        }
+    };
+    private final TimingWheel.DeliverySink inputSink = new TimingWheel.DeliverySink() {
+        @Override
+        public void deliver(int target, float weight) {
+            Brain.this.store.input[target] += weight;
+
+            if (Brain.this.spikeRouter != null)
+                Brain.this.spikeRouter.getFrontier().wake(target);
+        }
+    };
 
     Brain(int countNeurons) {
+        this(countNeurons, DEFAULT_EXECUTION_MODE);
+    }
+
+    Brain(int countNeurons, ExecutionMode executionMode) {
         this.nextThreshold = DEFAULT_THRESHOLD;
         this.nextXLocation = DEFAULT_X_LOCATION;
         this.nextYLocation = DEFAULT_Y_LOCATION;
         this.nextZLocation = DEFAULT_Z_LOCATION;
+        this.executionMode = executionMode;
+
+        this.store = new NeuronStore(countNeurons);
+        this.synapses = SynapseGraph.empty(countNeurons);
+        this.stimuli = new StimulusBuffer(StimulusBuffer.DEFAULT_CAPACITY);
+        this.topologyLog = new TopologyLog(countNeurons);
+
+        for (int i = 0; i < countNeurons; i++) {
+            this.store.threshold[i] = getNextThreshold();
+            this.store.locationX[i] = getNextXLocation();
+            this.store.locationY[i] = getNextYLocation();
+            this.store.locationZ[i] = getNextZLocation();
+        }
+
+        if (executionMode == ExecutionMode.THREAD_PER_NEURON) {
+            this.neurons = new Neuron[countNeurons];
+
+            for (int i = 0; i < countNeurons; i++) {
+                this.neurons[i] = new Neuron(i);
+                this.neurons[i].initThread(true);
+            }
+        } else if (executionMode == ExecutionMode.VIRTUAL_THREAD_PER_NEURON) {
+            this.mailboxes = new NeuronMailboxes(countNeurons);
+            this.virtualThreadFactory = loadVirtualThreadFactory();
+            this.neurons = new Neuron[countNeurons];
+
+            for (int i = 0; i < countNeurons; i++) {
+                this.neurons[i] = new Neuron(i);
+                this.neurons[i].initThread(false);
+            }
+        } else {
+            if (executionMode == ExecutionMode.HYBRID)
+                this.hybridPolicy = new HybridPolicy();
+
+            createTickEngines(null);
+        }
+    }
+
+    /**
+     * Fork of {@code origin}, sharing its synapses and read-only neuron columns; see
+     * {@link #fork()}.
+     */
+    private Brain(Brain origin) {
+        this.nextThreshold = origin.nextThreshold;
+        this.nextXLocation = origin.nextXLocation;
+        this.nextYLocation = origin.nextYLocation;
+        this.nextZLocation = origin.nextZLocation;
+        this.executionMode = origin.executionMode;
+        this.currentTick = origin.currentTick;
+
+        this.store = origin.store.fork();
+        this.synapses = origin.synapses;
+        this.stimuli = new StimulusBuffer(StimulusBuffer.DEFAULT_CAPACITY);
+        this.topologyLog = origin.topologyLog.fork();
+        this.network = origin.network;
+        if (origin.network != null) {
+            this.networkWorkspace = origin.network.new Workspace();
+            origin.networkShared = true;
+            this.networkShared = true;
+        }
+
+        origin.synapsesShared = true;
+        this.synapsesShared = true;
+        if (origin.hybridPolicy != null)
+            this.hybridPolicy = origin.hybridPolicy.copy();
+        if (origin.populations != null)
+            this.populations = origin.populations.copy();
+
+        createTickEngines(origin);
+
+        if (origin.scheduler != null && origin.scheduler.getBoundaries() != null)
+            this.scheduler.setBoundaries(origin.scheduler.getBoundaries());
+        if (origin.procedural != null)
+            setProcedural(origin.procedural);
+        if (origin.topology != null)
+            this.topology = new Topology(origin.topology);
+    }
+
+    /**
+     * Creates the engine driving ticks in this brain's execution mode, sharing whatever it
+     * derives from the synapses with {@code origin}'s engine if that is not {@code null}.
+     */
+    private void createTickEngines(Brain origin) {
+        if (this.executionMode == ExecutionMode.EVENT_DRIVEN || this.hybridPolicy != null && this.hybridPolicy.isEventDriven()) {
+            this.eventEngine = new EventDrivenEngine(this.store, this.synapses, this.currentTick);
+            if (this.topology != null)
+                this.eventEngine.setOverflow(this.topology.overflow);
+        } else {
+            if (this.scheduler == null)
+                this.scheduler = new TickScheduler();
+
+            if (this.executionMode == ExecutionMode.DETERMINISTIC && origin != null)
+                this.deterministicEngine = new DeterministicEngine(this.store, origin.deterministicEngine, this.scheduler);
+            else if (this.executionMode == ExecutionMode.DETERMINISTIC)
+                this.deterministicEngine = new DeterministicEngine(this.store, this.synapses, this.scheduler);
+            else
+                this.spikeRouter = new SpikeRouter(this.store, this.synapses, this.scheduler);
+
+            if (this.spikeRouter != null && this.topology != null)
+                this.spikeRouter.setOverflow(this.topology.overflow);
 
-        this.neurons = new Neuron[countNeurons];
+            this.pendingInput = new TimingWheel(this.currentTick);
+        }
     }
 
     public static Brain createBrain(BrainType type, BrainShape shape, int countNeurons) {
+        return createBrain(type, shape, countNeurons, DEFAULT_EXECUTION_MODE);
+    }
+
+    public static Brain createBrain(BrainType type, BrainShape shape, int countNeurons, ExecutionMode executionMode) {
         switch (type) {
             case FEED_FORWARD:
-                Brain brain = new Brain(countNeurons);
+                Brain brain = new Brain(countNeurons, executionMode);
+
+                if (shape == BrainShape.SPHERE)
+                    SpherePlacement.place(brain.store, SpherePlacement.unitDensityRadius(countNeurons), SpherePlacement.DEFAULT_SEED);
+
                 return brain;
         }
 
         return null;
     }
 
-    private Thread createThread(ThreadType type, String threadName) {
+    /**
+     * Creates a layered brain: {@code layerSizes[0]} input neurons followed by each further layer
+     * in turn, fully connected through dense weight matrices and evaluated with
+     * {@link #evaluate(float[], float[])}.
+     */
+    public static Brain createBrain(BrainType type, BrainShape shape, int[] layerSizes) {
         switch (type) {
+            case FEED_FORWARD:
+                FeedForwardNetwork network = new FeedForwardNetwork(layerSizes, FeedForwardNetwork.Activation.SIGMOID, FeedForwardNetwork.DEFAULT_SEED);
+                Brain brain = createBrain(type, shape, network.getNeuronCount());
+
+                brain.network = network;
+                brain.networkWorkspace = network.new Workspace();
+
+                return brain;
+        }
+
+        return null;
+    }
+
+    /**
+     * Runs a forward pass of a layered brain, leaving every neuron's activation in its potential.
+     */
+    public float[] evaluate(float[] input, float[] output) {
+        if (this.network == null)
+            throw new IllegalStateException("brain has no layers");
+
+        FeedForwardNetwork.Workspace workspace = this.networkWorkspace;
+
+        this.network.forward(input, output, workspace);
+
+        for (int l = 0; l < workspace.activations.length; l++)
+            System.arraycopy(workspace.activations[l], 0, this.store.potential, this.network.layerStart(l), workspace.activations[l].length);
+
+        if (this.spikeRouter != null)
+            this.spikeRouter.getFrontier().wakeAll();
+
+        return output;
+    }
+
+    /**
+     * Trains a layered brain for one epoch by backpropagation of the squared error over
+     * {@code sampleCount} samples, {@code inputs} and {@code targets} holding one row per sample.
+     * Samples are taken in order in mini-batches of {@code batchSize}, each batch spread over the
+     * network's worker pool and followed by a step of {@code learningRate} times its mean
+     * gradient. Weights are updated in place, except that a brain whose layers are shared with a
+     * fork or an inference server first takes its own copy, which they do not see.
+     *
+     * @return the mean squared error over the epoch, each batch measured before its update
+     */
+    public float train(float[] inputs, float[] targets, int sampleCount, int batchSize, float learningRate) {
+        if (this.network == null)
+            throw new IllegalStateException("brain has no layers");
+
+        if (this.networkShared) {
+            this.network = this.network.copy();
+            this.networkWorkspace = this.network.new Workspace();
+            this.networkShared = false;
+        }
+        if (this.networkTrainer == null || this.networkTrainer.getNetwork() != this.network || this.networkTrainer.getBatchSize() != batchSize)
+            this.networkTrainer = new NetworkTrainer(this.network, batchSize);
+
+        return this.networkTrainer.train(inputs, targets, sampleCount, learningRate);
+    }
+
+    FeedForwardNetwork getNetwork() {
+        return this.network;
+    }
+
+    /**
+     * Branches the brain: returns an independent brain in this one's current state, pending
+     * deliveries included, that diverges from it under whatever stimuli each of them receives
+     * from now on. The synapse graph is shared rather than copied, and so are the threshold and
+     * location columns until either brain writes to them; only the state every tick rewrites is
+     * copied, a few bytes per neuron. Each fork has its own worker pool, so forks can be ticked
+     * concurrently from different threads. Neuron-thread and plastic brains cannot be forked.
+     */
+    public Brain fork() {
+        if (this.executionMode == ExecutionMode.THREAD_PER_NEURON || this.executionMode == ExecutionMode.VIRTUAL_THREAD_PER_NEURON)
+            throw new UnsupportedOperationException("forks are not available in " + this.executionMode + " execution mode");
+        if (this.plasticity != null)
+            throw new UnsupportedOperationException("plasticity must be disabled to fork a brain");
+
+        // lazily updated neurons must be current before their state is copied
+        synchronize();
+
+        final Brain fork = new Brain(this);
+
+        forEachPending(new TimingWheel.PendingVisitor() {
+            @Override
+            public void visit(long deliveryTick, int target, float weight) {
+                fork.schedule(deliveryTick, target, weight);
+            }
+        });
+
+        return fork;
+    }
+
+    /**
+     * Creates an ensemble of {@code copies} copies of this brain's current state that share its
+     * synapses; see {@link BrainEnsemble}.
+     */
+    public BrainEnsemble createEnsemble(int copies) {
+        return new BrainEnsemble(this, copies);
+    }
+
+    /**
+     * Starts an {@link InferenceServer} over this brain's layers that evaluates concurrent
+     * requests in micro-batches of up to {@code maxBatchSize}, waiting at most {@code maxWait}
+     * for a batch to fill. Neuron potentials are not updated by served requests, and the server
+     * goes on serving the current weights when the brain is trained further.
+     */
+    public InferenceServer createInferenceServer(int maxBatchSize, long maxWait, TimeUnit unit) {
+        if (this.network == null)
+            throw new IllegalStateException("brain has no layers");
+
+        this.networkShared = true;
+
+        return new InferenceServer(this.network, maxBatchSize, maxWait, unit);
+    }
+
+    /**
+     * Advances the brain by one tick. A {@link ExecutionMode#POOLED} brain updates every neuron on
+     * the scheduler's worker pool, a {@link ExecutionMode#DETERMINISTIC} one does the same in
+     * bulk-synchronous steps that reproduce bit for bit whatever the core count, and an
+     * {@link ExecutionMode#EVENT_DRIVEN} brain only updates the neurons receiving spikes. A
+     * {@link ExecutionMode#HYBRID} brain measures the fraction of neurons firing per tick and
+     * switches between pooled sweeps and event-driven propagation as it rises and falls, see
+     * {@link #setHybridThresholds(float, float)}. Neurons of a {@link ExecutionMode#THREAD_PER_NEURON} brain run on their
+     * own threads and are not driven by ticks.
+     */
+    public void tick() {
+        if (this.topology != null || this.topologyLog.size() != 0) {
+            if (this.topology == null)
+                this.topology = new Topology();
+
+            this.topology.apply();
+        }
+
+        this.stimuli.drain(this.stimulusSink);
+
+        switch (this.executionMode) {
+            case POOLED:
+                tickPooled();
+                break;
+            case DETERMINISTIC:
+                this.pendingInput.advance(this.inputSink);
+                this.deterministicEngine.tick(this.currentTick);
+                break;
+            case EVENT_DRIVEN:
+                tickEventDriven();
+                break;
+            case HYBRID:
+                this.hybridPolicy.observe(this.eventEngine != null ? tickEventDriven() : tickPooled(), this.store.count);
+                break;
+            default:
+                throw new IllegalStateException("ticks are not available in " + this.executionMode + " execution mode");
+        }
+
+        if (this.populations != null)
+            this.populations.tick(this.currentTick, this.store, this.stimulusSink);
+
+        this.currentTick++;
+
+        if (this.hybridPolicy != null && this.hybridPolicy.isEventDriven() != (this.eventEngine != null))
+            switchPropagation();
+    }
+
+    /**
+     * Runs the current tick on the spike router and returns the number of neurons that fired.
+     */
+    private int tickPooled() {
+        this.pendingInput.advance(this.inputSink);
+        int fired = this.spikeRouter.tick(this.currentTick);
+        if (this.plasticity != null)
+            this.plasticity.afterTick(this.currentTick, this.scheduler, this.spikeRouter.getFrontier());
+
+        return fired;
+    }
+
+    /**
+     * Runs the current tick on the event engine and returns the number of neurons that fired.
+     */
+    private int tickEventDriven() {
+        int fired = this.eventEngine.tick();
+        if (this.plasticity != null)
+            this.plasticity.afterTick(this.currentTick, this.eventEngine);
+
+        return fired;
+    }
+
+    /**
+     * Hands the propagation of a {@link ExecutionMode#HYBRID} brain over to the other strategy
+     * between two ticks, carrying over the neuron state and every pending delivery.
+     */
+    private void switchPropagation() {
+        PendingDeliveries pending = new PendingDeliveries();
+
+        if (this.eventEngine != null) {
+            // lazily decayed neurons must be current before the sweeps take over
+            this.eventEngine.synchronize();
+            forEachPending(pending);
+
+            this.eventEngine = null;
+            if (this.scheduler == null)
+                this.scheduler = new TickScheduler();
+            this.spikeRouter = new SpikeRouter(this.store, this.synapses, this.scheduler);
+            this.spikeRouter.setProcedural(this.procedural);
+            if (this.topology != null)
+                this.spikeRouter.setOverflow(this.topology.overflow);
+            // the event engine kept no record of which neurons are off rest
+            this.spikeRouter.getFrontier().wakeAll();
+            this.pendingInput = new TimingWheel(this.currentTick);
+        } else {
+            float[] input = this.store.input;
+
+            // spikes of the last sweep went straight into the input column; they come first, as
+            // they would have been summed first
+            for (int i = 0; i < this.store.count; i++) {
+                if (input[i] != 0.0f) {
+                    pending.visit(this.currentTick, i, input[i]);
+                    input[i] = 0.0f;
+                }
+            }
+            forEachPending(pending);
+
+            this.spikeRouter = null;
+            this.pendingInput = null;
+            this.eventEngine = new EventDrivenEngine(this.store, this.synapses, this.currentTick);
+            this.eventEngine.setProcedural(this.procedural);
+            if (this.topology != null)
+                this.eventEngine.setOverflow(this.topology.overflow);
+        }
+
+        pending.replay(null);
+    }
+
+    /**
+     * Queues a batch of external stimuli: {@code currents[i]} is added to the input of neuron
+     * {@code neuronIds[i]} at {@code tick}, or at the next tick if {@code tick} has already
+     * passed. Safe to call from any thread; the batch is picked up at the start of the next
+     * {@link #tick()}. Virtual-thread brains have no ticks and receive the stimuli immediately.
+     *
+     * @return {@code false} if the stimulus buffer has no room for the batch, in which case none
+     * of it was queued
+     * @throws IndexOutOfBoundsException if any id has not been handed out, either initially or by
+     * {@link #addNeuron}, in which case none of the batch was queued
+     * @throws IllegalArgumentException if {@code tick} is more than
+     * {@link TimingWheel#getMaxDelay()} ticks ahead of the current tick
+     */
+    public boolean inject(int[] neuronIds, float[] currents, long tick) {
+        if (neuronIds.length != currents.length)
+            throw new IllegalArgumentException("neuron ids and currents differ in length");
+
+        long currentTick = this.currentTick;
+
+        if (tick > currentTick && tick - currentTick > TimingWheel.getMaxDelay())
+            throw new IllegalArgumentException(String.format("stimulus tick %d is more than %d ticks ahead of tick %d", tick, TimingWheel.getMaxDelay(), currentTick));
+
+        for (int id : neuronIds)
+            checkNeuronId(id);
+
+        switch (this.executionMode) {
+            case VIRTUAL_THREAD_PER_NEURON:
+                for (int i = 0; i < neuronIds.length; i++)
+                    this.mailboxes.post(neuronIds[i], currents[i]);
+                return true;
+            case THREAD_PER_NEURON:
+                throw new UnsupportedOperationException("THREAD_PER_NEURON brains take no stimuli");
+            default:
+                return this.stimuli.offer(neuronIds, currents, 0, neuronIds.length, tick);
+        }
+    }
+
+    /**
+     * Brings lazily updated neuron state up to date so it can be read through {@link Neuron}
+     * handles. Only {@link ExecutionMode#EVENT_DRIVEN} brains, and {@link ExecutionMode#HYBRID}
+     * ones while propagation is event-driven, defer updates.
+     */
+    public void synchronize() {
+        if (this.eventEngine != null)
+            this.eventEngine.synchronize();
+        if (this.plasticity != null)
+            this.plasticity.consolidate(this.currentTick - 1);
+    }
+
+    /**
+     * Turns on spike-timing-dependent plasticity of the synapse weights under {@code rule}.
+     * Weight changes are applied lazily when a synapse's source fires, and pending ones are
+     * swept in every {@code consolidationInterval} ticks and on {@link #synchronize()}. Only
+     * {@link ExecutionMode#POOLED}, {@link ExecutionMode#EVENT_DRIVEN} and
+     * {@link ExecutionMode#HYBRID} brains learn.
+     */
+    public void enablePlasticity(StdpRule rule, int consolidationInterval) {
+        if (this.executionMode != ExecutionMode.POOLED && this.executionMode != ExecutionMode.EVENT_DRIVEN && this.executionMode != ExecutionMode.HYBRID)
+            throw new UnsupportedOperationException("plasticity is not available in " + this.executionMode + " execution mode");
+        if (this.populations != null)
+            throw new UnsupportedOperationException("population projections are summed from fixed weights");
+        if (this.procedural != null)
+            throw new UnsupportedOperationException("procedural synapses have no stored weights to learn");
+        if (this.synapses.encoding != WeightEncoding.FLOAT32)
+            throw new UnsupportedOperationException("plasticity needs " + WeightEncoding.FLOAT32 + " weights, not " + this.synapses.encoding);
+
+        if (this.topology != null)
+            this.topology.settle();
+        if (this.synapsesShared)
+            installSynapses(this.synapses.copyWeights());
+
+        this.plasticity = new PlasticityEngine(this.store, this.synapses, rule, consolidationInterval, this.currentTick);
+    }
+
+    public void disablePlasticity() {
+        synchronize();
+        this.plasticity = null;
+    }
+
+    public void shutdown() {
+        if (this.scheduler != null)
+            this.scheduler.shutdown();
+
+        if (this.neurons != null)
+            for (Neuron neuron : this.neurons)
+                if (neuron != null && neuron.thread != null)
+                    neuron.thread.interrupt();
+    }
+
+    /**
+     * Returns a handle on neuron {@code id}. In {@link ExecutionMode#POOLED} mode handles are
+     * created on demand and only hold the id; all state lives in the brain's neuron store.
+     */
+    public Neuron getNeuron(int id) {
+        if (this.neurons != null)
+            return this.neurons[id];
+
+        return new Neuron(id);
+    }
+
+    public int getNeuronCount() {
+        return this.store.count;
+    }
+
+    NeuronStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Builds a grid index over the current neuron locations; {@code cellSize} should be close to
+     * the radius of the queries it will answer.
+     */
+    SpatialIndex buildSpatialIndex(float cellSize) {
+        return new SpatialIndex(this.store, cellSize);
+    }
+
+    /**
+     * Returns the synapse graph with every live edit applied so far folded in.
+     */
+    SynapseGraph getSynapses() {
+        if (this.topology != null)
+            this.topology.settle();
+
+        return this.synapses;
+    }
+
+    void setSynapses(SynapseGraph synapses) {
+        if (synapses.neuronCount != this.store.count)
+            throw new IllegalArgumentException(String.format("synapse graph spans %d neurons, brain has %d", synapses.neuronCount, this.store.count));
+        if (synapses.hasDelays() && this.deterministicEngine != null)
+            throw new IllegalArgumentException("synaptic delays are not supported in " + this.executionMode + " execution mode");
+
+        // settle learning on the outgoing graph before it is replaced
+        if (this.plasticity != null)
+            this.plasticity.consolidate(this.currentTick - 1);
+        if (this.procedural != null)
+            setProcedural(null);
+        if (this.topology != null)
+            this.topology.discardEdits();
+
+        installSynapses(synapses);
+    }
+
+    /**
+     * Hands {@code synapses} to the engines, keeping live topology edits, which must apply to it
+     * as they did to the graph replaced.
+     */
+    private void installSynapses(SynapseGraph synapses) {
+        this.synapses = synapses;
+        this.synapsesShared = false;
+
+        if (this.eventEngine != null)
+            this.eventEngine.setSynapses(synapses);
+        if (this.spikeRouter != null)
+            this.spikeRouter.setSynapses(synapses);
+        if (this.deterministicEngine != null)
+            this.deterministicEngine.setSynapses(synapses);
+        if (this.plasticity != null)
+            this.plasticity.setSynapses(synapses);
+    }
+
+    /**
+     * Connects every neuron to each other neuron within {@code radius} of it with probability
+     * {@code probability} and weight {@code weight}, without storing the synapses: fan-outs are
+     * regenerated from {@code seed} and the neuron id whenever a neuron fires, giving the same
+     * simulation as the stored graph {@link ProceduralSynapses#materialize()} builds from them.
+     * {@link SynapseGraph.Builder#connectWithin} draws its connections differently and does not
+     * match, even for the same parameters. Only
+     * {@link ExecutionMode#POOLED}, {@link ExecutionMode#EVENT_DRIVEN} and
+     * {@link ExecutionMode#HYBRID} brains support this; {@link #setSynapses(SynapseGraph)}
+     * switches back to stored synapses.
+     */
+    public void connectProcedurally(float radius, float probability, float weight, long seed) {
+        if (this.executionMode != ExecutionMode.POOLED && this.executionMode != ExecutionMode.EVENT_DRIVEN && this.executionMode != ExecutionMode.HYBRID)
+            throw new UnsupportedOperationException("procedural synapses are not available in " + this.executionMode + " execution mode");
+        if (this.plasticity != null)
+            throw new UnsupportedOperationException("procedural synapses have no stored weights to learn");
+        if (this.populations != null)
+            throw new UnsupportedOperationException("coarse regions keep the synapses they were coarsened with");
+
+        setSynapses(SynapseGraph.empty(this.store.count));
+        setProcedural(new ProceduralSynapses(this.store, radius, probability, weight, seed));
+    }
+
+    /**
+     * Re-encodes the synapse weights in {@code encoding} to cut their memory and bandwidth, and
+     * reports the error against the weights replaced. Plastic and procedural brains keep float
+     * weights.
+     */
+    public QuantizationReport encodeWeights(WeightEncoding encoding) {
+        if (this.procedural != null)
+            throw new UnsupportedOperationException("procedural synapses have no stored weights to encode");
+        if (this.plasticity != null && encoding != WeightEncoding.FLOAT32)
+            throw new UnsupportedOperationException("plasticity needs " + WeightEncoding.FLOAT32 + " weights");
+
+        SynapseGraph original = getSynapses();
+        SynapseGraph encoded = original.encode(encoding);
+
+        setSynapses(encoded);
+
+        return QuantizationReport.compare(original, encoded);
+    }
+
+    /**
+     * Renumbers the neurons so that each worker of a {@link ExecutionMode#POOLED} or
+     * {@link ExecutionMode#DETERMINISTIC} brain owns a range of neurons that mostly synapse onto
+     * each other, outgoing synapse counts being balanced between workers, with spatial neighbours
+     * next to each other in memory. State, synapses and pending deliveries move with the neurons,
+     * so the simulation carries on unchanged but for the numbering; handles obtained before keep
+     * the old ids.
+     *
+     * @return the new id of every neuron, indexed by its old id
+     */
+    public int[] partitionNeurons() {
+        if (this.scheduler == null)
+            throw new UnsupportedOperationException("partitioning is not available in " + this.executionMode + " execution mode");
+        if (this.network != null)
+            throw new UnsupportedOperationException("layered brains keep their neurons in layer order");
+        if (this.procedural != null)
+            throw new UnsupportedOperationException("procedural synapses are generated from neuron ids");
+        if (this.plasticity != null)
+            throw new UnsupportedOperationException("plasticity must be disabled while neurons are renumbered");
+        if (this.topology != null || this.topologyLog.size() != 0)
+            throw new UnsupportedOperationException("neurons cannot be renumbered once the topology has been edited live");
+        if (this.populations != null)
+            throw new UnsupportedOperationException("neurons cannot be renumbered once regions have been coarsened");
+
+        GraphPartitioner.Partitioning partitioning = GraphPartitioner.partition(this.store, this.synapses, this.scheduler.getPartitionCount(), GraphPartitioner.DEFAULT_IMBALANCE);
+        int[] newIds = partitioning.renumbering();
+        PendingDeliveries pending = new PendingDeliveries();
+
+        forEachPending(pending);
+
+        this.store.permute(newIds);
+        setSynapses(this.synapses.permute(newIds));
+        restoreClock(this.currentTick);
+        pending.replay(newIds);
+
+        this.scheduler.setBoundaries(partitioning.starts());
+        if (this.spikeRouter != null)
+            this.spikeRouter.getFrontier().wakeAll();
+
+        return newIds;
+    }
+
+    /**
+     * Replaces every neuron further than {@code detailRadius} from the given centre by mean-field
+     * populations, one per occupied cube of side {@code regionSize}, that track the firing rate of
+     * their members instead of individual spikes; neurons within the radius stay spike-accurate.
+     * Spikes of detailed neurons onto coarse ones become input to their populations, and
+     * populations drive detailed neurons with the input their members would send on average at
+     * their rate. Stimuli to coarse neurons go to their populations; the coarse neurons
+     * themselves stay silent from now on. Meant for {@link BrainShape#SPHERE} brains, whose
+     * periphery then costs a fraction of the detailed simulation.
+     *
+     * @return the number of populations
+     */
+    public int coarsenOutside(float centerX, float centerY, float centerZ, float detailRadius, float regionSize) {
+        if (this.scheduler == null && this.eventEngine == null)
+            throw new UnsupportedOperationException("coarse regions are not available in " + this.executionMode + " execution mode");
+        if (this.network != null)
+            throw new UnsupportedOperationException("layered brains keep their neurons in layer order");
+        if (this.procedural != null)
+            throw new UnsupportedOperationException("procedural synapses cannot be summed into populations");
+        if (this.plasticity != null)
+            throw new UnsupportedOperationException("plasticity must be disabled to coarsen regions");
+        if (this.topology != null || this.topologyLog.size() != 0)
+            throw new UnsupportedOperationException("regions cannot be coarsened once the topology has been edited live");
+        if (this.populations != null)
+            throw new UnsupportedOperationException("regions have already been coarsened");
+
+        // lazily updated neurons must be current before their state is averaged
+        if (this.eventEngine != null)
+            this.eventEngine.synchronize();
+
+        NeuronStore store = this.store;
+        SynapseGraph graph = this.synapses;
+        boolean[] coarse = new boolean[store.count];
+        float radiusSquared = detailRadius * detailRadius;
+
+        for (int i = 0; i < store.count; i++) {
+            float dx = store.locationX[i] - centerX, dy = store.locationY[i] - centerY, dz = store.locationZ[i] - centerZ;
+
+            coarse[i] = dx * dx + dy * dy + dz * dz > radiusSquared;
+        }
+
+        MeanFieldPopulations populations = MeanFieldPopulations.coarsen(store, graph, coarse, regionSize, this.currentTick);
+
+        // only synapses between detailed neurons stay in the graph
+        int[] offsets = new int[store.count + 1];
+        for (int source = 0; source < store.count; source++) {
+            int kept = 0;
+
+            if (!coarse[source])
+                for (int i = graph.begin(source), end = graph.end(source); i < end; i++)
+                    if (!coarse[graph.targets[i]])
+                        kept++;
+
+            offsets[source + 1] = offsets[source] + kept;
+        }
+
+        int[] targets = new int[offsets[store.count]];
+        float[] weights = new float[targets.length];
+        byte[] delays = new byte[targets.length];
+
+        for (int source = 0, slot = 0; source < store.count; source++) {
+            if (coarse[source])
+                continue;
+
+            for (int i = graph.begin(source), end = graph.end(source); i < end; i++) {
+                if (coarse[graph.targets[i]])
+                    continue;
+
+                targets[slot] = graph.targets[i];
+                weights[slot] = graph.weight(source, i);
+                delays[slot] = (byte) graph.delay(i);
+                slot++;
+            }
+        }
+
+        SynapseGraph detailed = new SynapseGraph(store.count, offsets, targets, weights, delays);
+        PendingDeliveries pending = new PendingDeliveries();
+
+        forEachPending(pending);
+
+        int[] threshold = store.writableThreshold();
+
+        for (int i = 0; i < store.count; i++) {
+            if (!coarse[i])
+                continue;
+
+            // input a sweep already delivered is due at the current tick
+            if (store.input[i] != 0.0f)
+                populations.stimulate(i, store.input[i], this.currentTick);
+
+            threshold[i] = Integer.MAX_VALUE;
+            store.potential[i] = 0.0f;
+            store.input[i] = 0.0f;
+            store.refractory[i] = 0;
+            store.fired[i] = 0;
+        }
+
+        setSynapses(graph.encoding == WeightEncoding.FLOAT32 ? detailed : detailed.encode(graph.encoding));
+        restoreClock(this.currentTick);
+        this.populations = populations;
+        pending.replay(null);
+
+        return populations.getCount();
+    }
+
+    /**
+     * Fraction of the members of coarse neuron {@code id}'s population that fired in the last
+     * tick; see {@link #coarsenOutside}.
+     */
+    public float getPopulationRate(int id) {
+        if (this.populations == null || !this.populations.isCoarse(id))
+            throw new IllegalArgumentException(String.format("neuron %d is simulated in detail", id));
+
+        return this.populations.getRate(this.populations.populationOf(id));
+    }
+
+    MeanFieldPopulations getPopulations() {
+        return this.populations;
+    }
+
+    /**
+     * Stages a new neuron with the given threshold and location, returning its id. Like the
+     * other live topology edits, it is safe to call from any thread while ticks run, and takes
+     * effect at the start of the next {@link #tick()}; the id can be wired up right away. Ids of
+     * removed neurons are reused once no synapse or delivery can reach them any more, and the
+     * neuron count grows ahead of demand, so {@link #getNeuronCount()} may include inert
+     * neurons that never fire. Live edits are available to {@link ExecutionMode#POOLED},
+     * {@link ExecutionMode#EVENT_DRIVEN} and {@link ExecutionMode#HYBRID} brains with stored,
+     * {@link WeightEncoding#FLOAT32} weights and no plasticity.
+     */
+    public int addNeuron(int threshold, float locationX, float locationY, float locationZ) {
+        checkLiveTopology();
+
+        return this.topologyLog.addNeuron(threshold, locationX, locationY, locationZ);
+    }
+
+    /**
+     * Stages the removal of neuron {@code id} with all of its synapses; it stops firing at the
+     * next tick.
+     */
+    public void removeNeuron(int id) {
+        checkLiveTopology();
+        checkNeuronId(id);
+
+        this.topologyLog.removeNeuron(id);
+    }
+
+    /**
+     * Stages a synapse from {@code source} to {@code target} with a delay of {@code delay} ticks.
+     * Edits involving a neuron that has been removed by then are ignored.
+     */
+    public void addSynapse(int source, int target, float weight, int delay) {
+        checkLiveTopology();
+        checkNeuronId(source);
+        checkNeuronId(target);
+        if (delay < 1 || delay > SynapseGraph.MAX_DELAY)
+            throw new IllegalArgumentException(String.format("synaptic delay %d outside of [1, %d]", delay, SynapseGraph.MAX_DELAY));
+
+        this.topologyLog.addSynapse(source, target, weight, delay);
+    }
+
+    /**
+     * Stages the removal of one synapse from {@code source} to {@code target}, if there is one
+     * when the edit is applied: the oldest, parallel synapses being removed in the order they
+     * were added.
+     */
+    public void removeSynapse(int source, int target) {
+        checkLiveTopology();
+        checkNeuronId(source);
+        checkNeuronId(target);
+
+        this.topologyLog.removeSynapse(source, target);
+    }
+
+    private void checkLiveTopology() {
+        if (this.executionMode != ExecutionMode.POOLED && this.executionMode != ExecutionMode.EVENT_DRIVEN && this.executionMode != ExecutionMode.HYBRID)
+            throw new UnsupportedOperationException("live topology edits are not available in " + this.executionMode + " execution mode");
+        if (this.network != null)
+            throw new UnsupportedOperationException("layered brains keep their neurons in layer order");
+        if (this.procedural != null)
+            throw new UnsupportedOperationException("procedural synapses cannot be edited");
+        if (this.plasticity != null)
+            throw new UnsupportedOperationException("plasticity must be disabled while the topology is edited");
+        if (this.populations != null)
+            throw new UnsupportedOperationException("coarse regions keep the synapses they were coarsened with");
+        if (this.synapses.encoding != WeightEncoding.FLOAT32)
+            throw new UnsupportedOperationException("live topology edits need " + WeightEncoding.FLOAT32 + " weights, not " + this.synapses.encoding);
+    }
+
+    private void checkNeuronId(int id) {
+        if (id < 0 || id >= this.topologyLog.getIdLimit())
+            throw new IndexOutOfBoundsException(String.format("neuron %d outside of %d neurons", id, this.topologyLog.getIdLimit()));
+    }
+
+    ProceduralSynapses getProcedural() {
+        return this.procedural;
+    }
+
+    private void setProcedural(ProceduralSynapses procedural) {
+        this.procedural = procedural;
+
+        if (this.spikeRouter != null)
+            this.spikeRouter.setProcedural(procedural);
+        if (this.eventEngine != null)
+            this.eventEngine.setProcedural(procedural);
+    }
+
+    /**
+     * Positions {@code connection} before the first outgoing synapse of neuron {@code source}.
+     * The same cursor can be reused for any number of neurons without allocating.
+     */
+    public Connection getConnections(int source, Connection connection) {
+        if (connection == null)
+            connection = new Connection();
+        if (this.topology != null)
+            this.topology.settle();
+
+        return connection.reset(source);
+    }
+
+    public long getCurrentTick() {
+        return this.currentTick;
+    }
+
+    /**
+     * Moves the simulation clock to {@code tick}, dropping deliveries still pending in an
+     * event-driven brain. Used when the brain's state is restored from elsewhere.
+     */
+    void restoreClock(long tick) {
+        this.currentTick = tick;
+
+        if (this.eventEngine != null) {
+            this.eventEngine = new EventDrivenEngine(this.store, this.synapses, tick);
+            this.eventEngine.setProcedural(this.procedural);
+            if (this.topology != null)
+                this.eventEngine.setOverflow(this.topology.overflow);
+        }
+        if (this.pendingInput != null)
+            this.pendingInput = new TimingWheel(tick);
+        if (this.spikeRouter != null)
+            this.spikeRouter.clearPending();
+    }
+
+    /**
+     * Schedules {@code weight} to be delivered to {@code target} at {@code deliveryTick}. Must be
+     * called from the thread driving the ticks; other threads go through {@link #inject}.
+     */
+    void schedule(long deliveryTick, int target, float weight) {
+        if (this.populations != null && this.populations.isCoarse(target))
+            this.populations.stimulate(target, weight, deliveryTick);
+        else if (this.eventEngine != null)
+            this.eventEngine.stimulate(target, weight, deliveryTick);
+        else if (this.pendingInput != null)
+            this.pendingInput.schedule(Math.max(deliveryTick, this.currentTick), target, weight);
+        else
+            throw new UnsupportedOperationException("deliveries are not available in " + this.executionMode + " execution mode");
+    }
+
+    /**
+     * Visits the deliveries scheduled for current or future ticks, including injected stimuli no
+     * tick has picked up yet.
+     */
+    void forEachPending(TimingWheel.PendingVisitor visitor) {
+        this.stimuli.drain(this.stimulusSink);
+
+        if (this.eventEngine != null)
+            this.eventEngine.forEachPending(visitor);
+        if (this.pendingInput != null)
+            this.pendingInput.forEachPending(visitor);
+        if (this.spikeRouter != null)
+            this.spikeRouter.forEachPending(visitor);
+    }
+
+    ExecutionMode getExecutionMode() {
+        return this.executionMode;
+    }
+
+    /**
+     * Sets when a {@link ExecutionMode#HYBRID} brain switches strategy: propagation turns
+     * event-driven once the smoothed fraction of neurons firing per tick falls below
+     * {@code eventBelow}, and back to pooled sweeps once it rises above {@code clockAbove}.
+     * The gap between the two keeps a brain near either threshold from switching every tick.
+     */
+    public void setHybridThresholds(float eventBelow, float clockAbove) {
+        if (this.hybridPolicy == null)
+            throw new UnsupportedOperationException("hybrid thresholds are not available in " + this.executionMode + " execution mode");
+
+        this.hybridPolicy.setThresholds(eventBelow, clockAbove);
+    }
+
+    HybridPolicy getHybridPolicy() {
+        return this.hybridPolicy;
+    }
+
+    private static NeuronThreadFactory loadVirtualThreadFactory() {
+        try {
+            return (NeuronThreadFactory) Class.forName(NeuronThreadFactory.VIRTUAL_FACTORY_CLASS).newInstance();
+        } catch (ClassNotFoundException | LinkageError e) {
+            throw new UnsupportedOperationException("virtual neuron threads need the loom source set and a Java 21 runtime", e);
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException("cannot instantiate " + NeuronThreadFactory.VIRTUAL_FACTORY_CLASS, e);
+        }
+    }
+
+    private Thread createThread(ThreadType type, int neuron, String threadName) {
+        switch (type) {
+            case VIRTUAL_NEURON_THREAD:
+                Thread actor = Brain.this.virtualThreadFactory.newThread(new NeuronActor(neuron), threadName);
+
+                Brain.this.mailboxes.setOwner(neuron, actor);
+
+                return actor;
             case NEURON_THREAD:
                 Brain.this.lastCreatedThreadRunning = false;
 
@@ -79,12 +1034,25 @@ public class Brain {
     }
 
     private ThreadType getNextNeuronThreadType() {
+        if (this.executionMode == ExecutionMode.VIRTUAL_THREAD_PER_NEURON)
+            return ThreadType.VIRTUAL_NEURON_THREAD;
+
         return DEFAULT_NEURON_THREAD_TYPE;
     }
 
     //region inner classes
     private enum ThreadType {
-        NEURON_THREAD
+        NEURON_THREAD,
+        VIRTUAL_NEURON_THREAD
+    }
+
+    enum ExecutionMode {
+        THREAD_PER_NEURON,
+        VIRTUAL_THREAD_PER_NEURON,
+        POOLED,
+        DETERMINISTIC,
+        EVENT_DRIVEN,
+        HYBRID
     }
 
     enum BrainType {
@@ -95,6 +1063,354 @@ public class Brain {
         SPHERE
     }
 
+    enum WeightEncoding {
+        FLOAT32,
+        FLOAT16,
+        INT8
+    }
+
+    /**
+     * Pending deliveries set aside while the neurons they target are renumbered or the engines
+     * holding them are rebuilt.
+     */
+    private final class PendingDeliveries implements TimingWheel.PendingVisitor {
+        private long[] ticks = new long[16];
+        private int[] targets = new int[16];
+        private float[] weights = new float[16];
+        private int size;
+
+        @Override
+        public void visit(long deliveryTick, int target, float weight) {
+            if (this.size == this.ticks.length) {
+                this.ticks = Arrays.copyOf(this.ticks, this.size * 2);
+                this.targets = Arrays.copyOf(this.targets, this.size * 2);
+                this.weights = Arrays.copyOf(this.weights, this.size * 2);
+            }
+
+            this.ticks[this.size] = deliveryTick;
+            this.targets[this.size] = target;
+            this.weights[this.size] = weight;
+            this.size++;
+        }
+
+        /**
+         * Schedules the deliveries again, renaming their targets through {@code newIds} unless it
+         * is {@code null}.
+         */
+        void replay(int[] newIds) {
+            for (int i = 0; i < this.size; i++)
+                schedule(this.ticks[i], newIds == null ? this.targets[i] : newIds[this.targets[i]], this.weights[i]);
+        }
+    }
+
+    /**
+     * Applies staged topology edits at tick boundaries: added synapses go to the overflow
+     * segments of a {@link SynapseOverflow}, removed ones are tombstoned, and once edits amount
+     * to an eighth of the graph a background thread compacts graph and overflow into a new graph.
+     * Edits applied while it runs are recorded and replayed onto the compacted graph when it is
+     * installed at a later boundary, so ticks never wait for a rebuild.
+     * <p>
+     * Removed neurons are inert until a compaction has dropped the synapses onto them, and their
+     * ids are handed out again only once the longest delay has passed after that, so a reused id
+     * receives nothing meant for the neuron before it.
+     */
+    private final class Topology implements TopologyLog.MutationVisitor {
+        private static final int MIN_COMPACTION_EDITS = 1 << 12;
+        private static final int COMPACTION_FRACTION = 8;
+        private SynapseOverflow overflow;
+        // neurons not alive: removed, waiting for their id to be reused, or not handed out yet
+        private final BitSet dead;
+        // removed neurons the graph may still hold synapses onto
+        private final BitSet uncompacted;
+        private FutureTask<SynapseGraph> compaction;
+        private BitSet compacting;
+        private TopologyLog replay;
+        private int[] quarantined = new int[0];
+        private int quarantinedCount;
+        private long releaseTick;
+
+        Topology() {
+            this.overflow = new SynapseOverflow(Brain.this.store.count);
+            this.dead = new BitSet();
+            this.uncompacted = new BitSet();
+
+            markUnborn();
+            setOverflow();
+        }
+
+        /**
+         * The edits of a fork's origin, without its compaction in progress.
+         */
+        Topology(Topology origin) {
+            this.overflow = origin.overflow.copy();
+            this.dead = (BitSet) origin.dead.clone();
+            this.uncompacted = (BitSet) origin.uncompacted.clone();
+            this.quarantined = Arrays.copyOf(origin.quarantined, origin.quarantinedCount);
+            this.quarantinedCount = origin.quarantinedCount;
+            this.releaseTick = origin.releaseTick;
+
+            markUnborn();
+            setOverflow();
+        }
+
+        /**
+         * Marks dead the ids not handed out yet that the store already holds, and the ids handed
+         * out whose neurons this brain has not added yet.
+         */
+        private void markUnborn() {
+            int idLimit = Brain.this.topologyLog.getIdLimit();
+            int count = Brain.this.store.count;
+
+            this.dead.set(Math.min(idLimit, count), Math.max(idLimit, count));
+        }
+
+        void apply() {
+            if (this.quarantinedCount != 0 && Brain.this.currentTick >= this.releaseTick) {
+                Brain.this.topologyLog.release(this.quarantined, this.quarantinedCount);
+                this.quarantinedCount = 0;
+            }
+
+            if (this.compaction != null && this.compaction.isDone())
+                installCompaction();
+
+            if (Brain.this.topologyLog.drain(this) == 0)
+                return;
+
+            // the overflow may have brought longer delays
+            setOverflow();
+
+            int threshold = Math.max(MIN_COMPACTION_EDITS, Brain.this.synapses.getSynapseCount() / COMPACTION_FRACTION);
+            if (this.compaction == null && this.overflow.size() >= threshold)
+                startCompaction();
+        }
+
+        /**
+         * Folds every edit into the graph right away, dropping a compaction in progress.
+         */
+        void settle() {
+            if (this.overflow.size() == 0 && this.uncompacted.isEmpty())
+                return;
+
+            this.compaction = null;
+            this.replay = null;
+
+            BitSet removed = (BitSet) this.uncompacted.clone();
+
+            install(this.overflow.compact(Brain.this.synapses, removed), removed);
+        }
+
+        /**
+         * Forgets the edits of a graph that has been replaced as a whole.
+         */
+        void discardEdits() {
+            this.compaction = null;
+            this.replay = null;
+            this.overflow = new SynapseOverflow(Brain.this.store.count);
+
+            setOverflow();
+        }
+
+        private void setOverflow() {
+            if (Brain.this.spikeRouter != null)
+                Brain.this.spikeRouter.setOverflow(this.overflow);
+            if (Brain.this.eventEngine != null)
+                Brain.this.eventEngine.setOverflow(this.overflow);
+        }
+
+        private void startCompaction() {
+            final SynapseGraph graph = Brain.this.synapses;
+            final SynapseOverflow frozen = this.overflow.copy();
+            final BitSet removed = (BitSet) this.uncompacted.clone();
+
+            this.compacting = removed;
+            this.replay = new TopologyLog(0);
+            this.compaction = new FutureTask<SynapseGraph>(new Callable<SynapseGraph>() {
+                @Override
+                public SynapseGraph call() {
+                    return frozen.compact(graph, removed);
+                }
+            });
+
+            Thread thread = new Thread(this.compaction, "brain-compaction");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void installCompaction() {
+            SynapseGraph compacted;
+
+            try {
+                compacted = this.compaction.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while installing a compacted synapse graph", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("synapse graph compaction failed", e.getCause());
+            }
+
+            TopologyLog replay = this.replay;
+
+            this.compaction = null;
+            this.replay = null;
+
+            install(compacted, this.compacting);
+
+            // edits applied since the compaction started, in the same order
+            replay.drain(new TopologyLog.MutationVisitor() {
+                @Override
+                public void addNeuron(int id, int threshold, float x, float y, float z) {
+                }
+
+                @Override
+                public void removeNeuron(int id) {
+                    Topology.this.overflow.removeAll(Brain.this.synapses, id);
+                }
+
+                @Override
+                public void addSynapse(int source, int target, float weight, int delay) {
+                    Topology.this.overflow.add(source, target, weight, delay);
+                }
+
+                @Override
+                public void removeSynapse(int source, int target) {
+                    Topology.this.overflow.remove(Brain.this.synapses, source, target);
+                }
+            });
+
+            setOverflow();
+        }
+
+        /**
+         * Puts {@code compacted} in place of graph and overflow, and starts the quarantine of the
+         * ids of the {@code removed} neurons it no longer reaches.
+         */
+        private void install(SynapseGraph compacted, BitSet removed) {
+            // deliveries already on their way through the old synapses arrive within their delay
+            long releaseTick = Brain.this.currentTick + Math.max(Brain.this.synapses.maxDelay, this.overflow.getMaxDelay()) + 1;
+
+            if (compacted.neuronCount < Brain.this.store.count)
+                compacted = compacted.grow(Brain.this.store.count);
+
+            this.overflow = new SynapseOverflow(Brain.this.store.count);
+            installSynapses(compacted);
+            setOverflow();
+
+            this.uncompacted.andNot(removed);
+
+            int count = removed.cardinality();
+            if (this.quarantinedCount + count > this.quarantined.length)
+                this.quarantined = Arrays.copyOf(this.quarantined, this.quarantinedCount + count);
+            for (int id = removed.nextSetBit(0); id >= 0; id = removed.nextSetBit(id + 1))
+                this.quarantined[this.quarantinedCount++] = id;
+
+            this.releaseTick = Math.max(this.releaseTick, releaseTick);
+        }
+
+        /**
+         * Gives the brain its own copy of the graph's weights before a tombstone is written into
+         * them, should a fork share them.
+         */
+        private void ownWeights() {
+            if (Brain.this.synapsesShared)
+                installSynapses(Brain.this.synapses.copyWeights());
+        }
+
+        private void wake(int id) {
+            if (Brain.this.spikeRouter != null)
+                Brain.this.spikeRouter.getFrontier().wake(id);
+        }
+
+        /**
+         * Rebuilds the store, graph and engines over {@code count} neurons, carrying over the
+         * state and the pending deliveries; the neurons added are inert until handed out.
+         */
+        private void growNeurons(int count) {
+            int oldCount = Brain.this.store.count;
+
+            if (Brain.this.eventEngine != null)
+                Brain.this.eventEngine.synchronize();
+
+            PendingDeliveries pending = new PendingDeliveries();
+            forEachPending(pending);
+
+            Brain.this.store = Brain.this.store.grow(count);
+            Brain.this.synapses = Brain.this.synapses.grow(count);
+            this.overflow.grow(count);
+            this.dead.set(oldCount, count);
+
+            createTickEngines(null);
+            pending.replay(null);
+        }
+
+        @Override
+        public void addNeuron(int id, int threshold, float x, float y, float z) {
+            NeuronStore store = Brain.this.store;
+
+            if (id >= store.count)
+                growNeurons(Math.max(id + 1, store.count + (store.count >> 1)));
+
+            store = Brain.this.store;
+            store.writableThreshold()[id] = threshold;
+            store.ownLocations();
+            store.locationX[id] = x;
+            store.locationY[id] = y;
+            store.locationZ[id] = z;
+            store.potential[id] = 0.0f;
+            store.input[id] = 0.0f;
+            store.refractory[id] = 0;
+            store.fired[id] = 0;
+
+            this.dead.clear(id);
+            wake(id);
+        }
+
+        @Override
+        public void removeNeuron(int id) {
+            if (this.dead.get(id))
+                return;
+
+            NeuronStore store = Brain.this.store;
+
+            ownWeights();
+            this.overflow.removeAll(Brain.this.synapses, id);
+
+            store.writableThreshold()[id] = Integer.MAX_VALUE;
+            store.potential[id] = 0.0f;
+            store.input[id] = 0.0f;
+            store.refractory[id] = 0;
+
+            this.dead.set(id);
+            this.uncompacted.set(id);
+            if (this.replay != null)
+                this.replay.removeNeuron(id);
+
+            // one more update clears a spike it may have just fired
+            wake(id);
+        }
+
+        @Override
+        public void addSynapse(int source, int target, float weight, int delay) {
+            if (this.dead.get(source) || this.dead.get(target))
+                return;
+
+            this.overflow.add(source, target, weight, delay);
+
+            if (this.replay != null)
+                this.replay.addSynapse(source, target, weight, delay);
+        }
+
+        @Override
+        public void removeSynapse(int source, int target) {
+            if (this.dead.get(source) || this.dead.get(target))
+                return;
+
+            ownWeights();
+
+            if (this.overflow.remove(Brain.this.synapses, source, target) && this.replay != null)
+                this.replay.removeSynapse(source, target);
+        }
+    }
+
     class NeuronThread extends Thread {
         private final Object _blocker = new Object();
         private final Object _monitor = new Object();
@@ -112,8 +1428,10 @@ public class Brain {
         @Override
         public void run() {
             //region release run query lock
-            Brain.this.lastCreatedThreadRunning = true;
-            this._blocker.notifyAll();
+            synchronized (this._monitor) {
+                Brain.this.lastCreatedThreadRunning = true;
+                this._monitor.notifyAll();
+            }
             //endregion
 
             synchronized (this.threadInput) {
@@ -123,62 +1441,153 @@ public class Brain {
 
 
                     } catch (InterruptedException e) {
+                        return;
                     }
                 }
             }
         }
     }
 
-    class Connection {
+    /**
+     * Body of a {@link ThreadType#VIRTUAL_NEURON_THREAD}: parks on the neuron's mailbox,
+     * integrates whatever current arrived and, on reaching threshold, posts the spike to the
+     * mailboxes of its synaptic targets. Actors are not tick driven, so there is no decay or
+     * refractory period.
+     */
+    class NeuronActor implements Runnable {
+        private final int neuron;
 
+        NeuronActor(int neuron) {
+            this.neuron = neuron;
+        }
+
+        @Override
+        public void run() {
+            final NeuronStore store = Brain.this.store;
+            final NeuronMailboxes mailboxes = Brain.this.mailboxes;
+
+            while (true) {
+                float current = mailboxes.take(this.neuron);
+
+                // shutdown interrupts the actor; a NaN or infinite current is just input
+                if (Thread.currentThread().isInterrupted())
+                    return;
+
+                float potential = store.potential[this.neuron] + current;
+
+                if (potential < store.threshold[this.neuron]) {
+                    store.potential[this.neuron] = potential;
+                    continue;
+                }
+
+                store.potential[this.neuron] = store.resetPotential;
+
+                SynapseGraph synapses = Brain.this.synapses;
+                for (int i = synapses.begin(this.neuron), end = synapses.end(this.neuron); i < end; i++)
+                    mailboxes.post(synapses.targets[i], synapses.weight(this.neuron, i));
+            }
+        }
     }
 
-    class Neuron implements Threadable {
-        int locationX, locationY, locationZ;
-        int threshold;
-        Thread neuronThread;
-        private ThreadType threadType;
-        private Thread thread;
+    public class Connection {
+        private int source;
+        private int index;
+        private int end;
+        // fan-out of a procedural brain, regenerated on reset
+        private int[] generatedTargets;
+        private float[] generatedWeights;
+        private ProceduralSynapses.Generator generator;
+        private boolean generated;
+        private final ProceduralSynapses.SynapseVisitor collector = new ProceduralSynapses.SynapseVisitor() {
+            @Override
+            public void visit(int target, float weight) {
+                collect(target, weight);
+            }
+        };
 
-        Neuron(int threshold, int locationX, int locationY, int locationZ) {
-            setThreshold(threshold);
+        Connection reset(int source) {
+            ProceduralSynapses procedural = Brain.this.procedural;
 
-            this.locationX = locationX;
-            this.locationY = locationY;
-            this.locationZ = locationZ;
-            this.threadType = Brain.this.getNextNeuronThreadType();
+            this.source = source;
+
+            if (procedural != null) {
+                if (this.generator == null || this.generator.getSynapses() != procedural)
+                    this.generator = procedural.newGenerator();
+
+                this.generated = true;
+                this.end = 0;
+                this.generator.generate(source, this.collector);
+                this.index = -1;
+
+                return this;
+            }
+
+            SynapseGraph synapses = Brain.this.synapses;
 
-            initThread(true);
+            this.generated = false;
+            this.index = synapses.begin(source) - 1;
+            this.end = synapses.end(source);
+
+            return this;
         }
 
-        Neuron(int threshold) {
-            setThreshold(threshold);
+        private void collect(int target, float weight) {
+            if (this.generatedTargets == null || this.end == this.generatedTargets.length) {
+                int capacity = this.generatedTargets == null ? 16 : this.end << 1;
 
-            this.locationX = Brain.this.getNextXLocation();
-            this.locationY = Brain.this.getNextYLocation();
-            this.locationZ = Brain.this.getNextZLocation();
-            this.threadType = Brain.this.getNextNeuronThreadType();
+                this.generatedTargets = this.generatedTargets == null ? new int[capacity] : Arrays.copyOf(this.generatedTargets, capacity);
+                this.generatedWeights = this.generatedWeights == null ? new float[capacity] : Arrays.copyOf(this.generatedWeights, capacity);
+            }
 
-            initThread(true);
+            this.generatedTargets[this.end] = target;
+            this.generatedWeights[this.end] = weight;
+            this.end++;
+        }
+
+        public boolean next() {
+            return ++this.index < this.end;
+        }
+
+        public int getSource() {
+            return this.source;
+        }
+
+        public int getTarget() {
+            return this.generated ? this.generatedTargets[this.index] : Brain.this.synapses.targets[this.index];
+        }
+
+        public float getWeight() {
+            return this.generated ? this.generatedWeights[this.index] : Brain.this.synapses.weight(this.source, this.index);
+        }
+
+        public int getDelay() {
+            return this.generated ? SynapseGraph.DEFAULT_DELAY : Brain.this.synapses.delay(this.index);
+        }
+    }
+
+    public class Neuron implements Threadable {
+        final int id;
+        private ThreadType threadType;
+        private Thread thread;
+
+        Neuron(int id) {
+            this.id = id;
+            this.threadType = Brain.this.getNextNeuronThreadType();
         }
 
         public void initThread(boolean lock) {
-            this.thread = createThread(getThreadType(), getThreadName());
+            this.thread = createThread(getThreadType(), this.id, getThreadName());
             this.thread.start();
 
             if (lock) {
                 synchronized (getLastCreatedThreadMonitor()) {
 
-                    while (true) {
+                    while (!isLastCreatedThreadRunning()) {
                         try {
                             getLastCreatedThreadMonitor().wait(0);
                         } catch (InterruptedException e) {
                             e.printStackTrace();
                         }
-
-                        if (isLastCreatedThreadRunning()) {
-                            break;
-                        }
                     }
                 }
             }
@@ -186,11 +1595,55 @@ public class Brain {
 
         @Override
         public String getThreadName() {
-            return String.format("%d|%d|%d|%d", hashCode(), this.locationX, this.locationY, this.locationZ);
+            return String.format("%d|%s|%s|%s", this.id, getLocationX(), getLocationY(), getLocationZ());
+        }
+
+        public int getId() {
+            return this.id;
+        }
+
+        public int getThreshold() {
+            return Brain.this.store.threshold[this.id];
         }
 
         void setThreshold(int threshold) {
-            this.threshold = Brain.this.getNextThreshold();
+            Brain.this.store.writableThreshold()[this.id] = threshold;
+
+            // a lowered threshold can make a resting neuron fire
+            if (Brain.this.spikeRouter != null)
+                Brain.this.spikeRouter.getFrontier().wake(this.id);
+        }
+
+        public float getPotential() {
+            return Brain.this.store.potential[this.id];
+        }
+
+        public boolean hasFired() {
+            return Brain.this.store.fired[this.id] != 0;
+        }
+
+        public boolean isRefractory() {
+            return Brain.this.store.refractory[this.id] > 0;
+        }
+
+        public float getLocationX() {
+            return Brain.this.store.locationX[this.id];
+        }
+
+        public float getLocationY() {
+            return Brain.this.store.locationY[this.id];
+        }
+
+        public float getLocationZ() {
+            return Brain.this.store.locationZ[this.id];
+        }
+
+        void setLocation(float locationX, float locationY, float locationZ) {
+            Brain.this.store.ownLocations();
+
+            Brain.this.store.locationX[this.id] = locationX;
+            Brain.this.store.locationY[this.id] = locationY;
+            Brain.this.store.locationZ[this.id] = locationZ;
         }
 
         ThreadType getThreadType() {
@@ -0,0 +1,243 @@
+package net.chakmeshma.brain;
+
+/**
+ * {@code K} copies of one brain that share a single synapse graph and are simulated in lock step.
+ * <p>
+ * Per-copy state is stored interleaved, the {@code K} lanes of neuron {@code i} sitting at
+ * {@code [i * K, (i + 1) * K)} of every column, so one traversal of a synapse updates all copies
+ * at once and the cost of streaming the topology is paid once per ensemble rather than once per
+ * copy. Ticks follow {@link DeterministicEngine}: input is pulled over the transposed graph and
+ * state is double buffered, so every copy evolves exactly like a
+ * {@link Brain.ExecutionMode#DETERMINISTIC} brain with the same thresholds and stimuli.
+ * <p>
+ * {@link #inject(int, int[], float[])}, the setters and the readers must not be called while
+ * {@link #tick()} is running.
+ */
+public final class BrainEnsemble {
+    private final int copies;
+    private final int neuronCount;
+    private final SynapseGraph incoming;
+    private final float[] incomingWeights;
+    private final TickScheduler scheduler;
+    private final float decay;
+    private final float resetPotential;
+    private final int refractoryPeriod;
+    private final int[] threshold;
+    private final float[] input;
+    private float[] potential;
+    private int[] refractory;
+    private byte[] fired;
+    private float[] backPotential;
+    private int[] backRefractory;
+    private byte[] backFired;
+    private final float[][] laneSums;
+    private final int[] spikes;
+    private long currentTick;
+    private final TickScheduler.TickTask sweep = new TickScheduler.TickTask() {
+        @Override
+        public void process(int partition, int from, int to, long tick) {
+            BrainEnsemble.this.process(partition, from, to);
+        }
+    };
+
+    /**
+     * Creates {@code copies} copies of {@code brain}'s current neuron state and synapses.
+     */
+    BrainEnsemble(Brain brain, int copies) {
+        if (copies < 1)
+            throw new IllegalArgumentException("an ensemble needs at least one copy");
+
+        if (brain.getProcedural() != null)
+            throw new IllegalArgumentException("ensembles need stored synapses");
+        if (brain.getSynapses().hasDelays())
+            throw new IllegalArgumentException("ensembles only support one-tick synaptic delays");
+
+        brain.synchronize();
+
+        NeuronStore store = brain.getStore();
+        int lanes = store.count * copies;
+
+        this.copies = copies;
+        this.neuronCount = store.count;
+        this.incoming = brain.getSynapses().transpose();
+        this.incomingWeights = this.incoming.floatWeights();
+        this.scheduler = new TickScheduler();
+        this.decay = store.decay;
+        this.resetPotential = store.resetPotential;
+        this.refractoryPeriod = store.refractoryPeriod;
+        this.threshold = new int[lanes];
+        this.input = new float[lanes];
+        this.potential = new float[lanes];
+        this.refractory = new int[lanes];
+        this.fired = new byte[lanes];
+        this.backPotential = new float[lanes];
+        this.backRefractory = new int[lanes];
+        this.backFired = new byte[lanes];
+        this.laneSums = new float[this.scheduler.getPartitionCount()][copies];
+        this.spikes = new int[this.scheduler.getPartitionCount()];
+        this.currentTick = brain.getCurrentTick();
+
+        for (int i = 0; i < store.count; i++) {
+            for (int k = 0, lane = i * copies; k < copies; k++, lane++) {
+                this.threshold[lane] = store.threshold[i];
+                this.input[lane] = store.input[i];
+                this.potential[lane] = store.potential[i];
+                this.refractory[lane] = store.refractory[i];
+                this.fired[lane] = store.fired[i];
+            }
+        }
+    }
+
+    public int getCopyCount() {
+        return this.copies;
+    }
+
+    public int getNeuronCount() {
+        return this.neuronCount;
+    }
+
+    public long getCurrentTick() {
+        return this.currentTick;
+    }
+
+    public int getThreshold(int copy, int neuron) {
+        return this.threshold[lane(copy, neuron)];
+    }
+
+    public void setThreshold(int copy, int neuron, int threshold) {
+        this.threshold[lane(copy, neuron)] = threshold;
+    }
+
+    public float getPotential(int copy, int neuron) {
+        return this.potential[lane(copy, neuron)];
+    }
+
+    public boolean hasFired(int copy, int neuron) {
+        return this.fired[lane(copy, neuron)] != 0;
+    }
+
+    /**
+     * Copies the potentials of every neuron of {@code copy} into {@code potentials}.
+     */
+    public float[] readPotentials(int copy, float[] potentials) {
+        lane(copy, 0);
+
+        if (potentials == null)
+            potentials = new float[this.neuronCount];
+
+        for (int i = 0, lane = copy; i < this.neuronCount; i++, lane += this.copies)
+            potentials[i] = this.potential[lane];
+
+        return potentials;
+    }
+
+    /**
+     * Adds {@code currents[i]} to the input of neuron {@code neuronIds[i]} of {@code copy}; the
+     * input is integrated by the next {@link #tick()}.
+     */
+    public void inject(int copy, int[] neuronIds, float[] currents) {
+        if (neuronIds.length != currents.length)
+            throw new IllegalArgumentException("neuron ids and currents differ in length");
+
+        for (int i = 0; i < neuronIds.length; i++)
+            this.input[lane(copy, neuronIds[i])] += currents[i];
+    }
+
+    /**
+     * Advances every copy by one tick and returns the number of spikes over all copies.
+     */
+    public int tick() {
+        this.scheduler.runTick(this.sweep, this.neuronCount, this.currentTick);
+
+        float[] potential = this.potential;
+        int[] refractory = this.refractory;
+        byte[] fired = this.fired;
+
+        this.potential = this.backPotential;
+        this.refractory = this.backRefractory;
+        this.fired = this.backFired;
+        this.backPotential = potential;
+        this.backRefractory = refractory;
+        this.backFired = fired;
+        this.currentTick++;
+
+        int total = 0;
+        for (int spikes : this.spikes)
+            total += spikes;
+
+        return total;
+    }
+
+    public void shutdown() {
+        this.scheduler.shutdown();
+    }
+
+    private void process(int partition, int from, int to) {
+        final int copies = this.copies;
+        final int[] offsets = this.incoming.offsets;
+        final int[] sources = this.incoming.targets;
+        final float[] weights = this.incomingWeights;
+        final int[] threshold = this.threshold;
+        final float[] input = this.input;
+        final float[] potential = this.potential;
+        final int[] refractory = this.refractory;
+        final byte[] fired = this.fired;
+        final float[] nextPotential = this.backPotential;
+        final int[] nextRefractory = this.backRefractory;
+        final byte[] nextFired = this.backFired;
+        final float[] synaptic = this.laneSums[partition];
+        final float decay = this.decay;
+        final float resetPotential = this.resetPotential;
+        final int refractoryPeriod = this.refractoryPeriod;
+        int spikes = 0;
+
+        for (int i = from; i < to; i++) {
+            int base = i * copies;
+
+            for (int k = 0; k < copies; k++) {
+                synaptic[k] = input[base + k];
+                input[base + k] = 0.0f;
+            }
+
+            // one pass over the incoming synapses feeds every copy
+            for (int s = offsets[i], end = offsets[i + 1]; s < end; s++) {
+                int source = sources[s] * copies;
+                float weight = weights[s];
+
+                for (int k = 0; k < copies; k++)
+                    if (fired[source + k] != 0)
+                        synaptic[k] += weight;
+            }
+
+            for (int k = 0, lane = base; k < copies; k++, lane++) {
+                float v = potential[lane] * decay + synaptic[k];
+
+                if (refractory[lane] > 0) {
+                    nextRefractory[lane] = refractory[lane] - 1;
+                    nextPotential[lane] = resetPotential;
+                    nextFired[lane] = 0;
+                } else if (v >= threshold[lane]) {
+                    nextRefractory[lane] = refractoryPeriod;
+                    nextPotential[lane] = resetPotential;
+                    nextFired[lane] = 1;
+                    spikes++;
+                } else {
+                    nextRefractory[lane] = 0;
+                    nextPotential[lane] = v;
+                    nextFired[lane] = 0;
+                }
+            }
+        }
+
+        this.spikes[partition] = spikes;
+    }
+
+    private int lane(int copy, int neuron) {
+        if (copy < 0 || copy >= this.copies)
+            throw new IndexOutOfBoundsException(String.format("copy %d out of [0, %d)", copy, this.copies));
+        if (neuron < 0 || neuron >= this.neuronCount)
+            throw new IndexOutOfBoundsException(String.format("neuron %d out of [0, %d)", neuron, this.neuronCount));
+
+        return neuron * this.copies + copy;
+    }
+}
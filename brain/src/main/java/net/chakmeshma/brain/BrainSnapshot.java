@@ -0,0 +1,397 @@
+package net.chakmeshma.brain;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Versioned little-endian snapshot of a brain: neuron columns, CSR synapses, pending deliveries
+ * and the simulation clock.
+ * <p>
+ * The file starts with a fixed header holding the sizes and a table of 8-byte aligned section
+ * offsets, one section per column. {@link #open(File)} only maps the header; every column is
+ * mapped on first access, so opening is independent of the brain's size and pages are read in
+ * lazily by the OS. {@link #write(Brain, File)} streams the columns through one small direct
+ * buffer instead of building the file image on heap.
+ */
+final class BrainSnapshot implements Closeable {
+    static final int MAGIC = 0x534E5242; // "BRNS" read little-endian
+    static final int VERSION = 2;
+    private static final int SECTION_TABLE_OFFSET = 40;
+    private static final int HEADER_BYTES = SECTION_TABLE_OFFSET + 8 * Section.values().length;
+    private static final int PENDING_ENTRY_BYTES = 16;
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int neuronCount;
+    private final int synapseCount;
+    private final int pendingCount;
+    private final int refractoryPeriod;
+    private final long tick;
+    private final float decay;
+    private final float resetPotential;
+    private final long[] sectionOffsets;
+
+    private BrainSnapshot(RandomAccessFile file) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+
+        long size = this.channel.size();
+        if (size < HEADER_BYTES)
+            throw new IOException("not a brain snapshot: file is shorter than the header");
+
+        ByteBuffer header = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (header.getInt(0) != MAGIC)
+            throw new IOException("not a brain snapshot: bad magic number");
+        if (header.getInt(4) != VERSION)
+            throw new IOException(String.format("unsupported brain snapshot version %d (expected %d)", header.getInt(4), VERSION));
+
+        this.neuronCount = header.getInt(8);
+        this.synapseCount = header.getInt(12);
+        this.pendingCount = header.getInt(16);
+        this.refractoryPeriod = header.getInt(20);
+        this.tick = header.getLong(24);
+        this.decay = header.getFloat(32);
+        this.resetPotential = header.getFloat(36);
+        this.sectionOffsets = new long[Section.values().length];
+
+        for (Section section : Section.values()) {
+            long offset = header.getLong(SECTION_TABLE_OFFSET + 8 * section.ordinal());
+
+            if (offset < HEADER_BYTES || offset + sectionBytes(section) > size)
+                throw new IOException(String.format("brain snapshot is truncated (section %s)", section));
+
+            this.sectionOffsets[section.ordinal()] = offset;
+        }
+    }
+
+    static BrainSnapshot open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+
+        try {
+            return new BrainSnapshot(file);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    static void write(Brain brain, File path) throws IOException {
+        if (brain.getProcedural() != null)
+            throw new IllegalArgumentException("procedural synapses are not stored; snapshot a brain with a stored graph");
+        if (brain.getPopulations() != null)
+            throw new IllegalArgumentException("population state is not stored; snapshot a brain without coarse regions");
+
+        brain.synchronize();
+
+        NeuronStore store = brain.getStore();
+        SynapseGraph synapses = brain.getSynapses();
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+
+        try {
+            file.setLength(0);
+
+            ColumnWriter writer = new ColumnWriter(file.getChannel());
+            long[] offsets = new long[Section.values().length];
+
+            writer.position(HEADER_BYTES);
+
+            offsets[Section.THRESHOLD.ordinal()] = writer.align();
+            writer.put(store.threshold, store.count);
+            offsets[Section.POTENTIAL.ordinal()] = writer.align();
+            writer.put(store.potential, store.count);
+            offsets[Section.INPUT.ordinal()] = writer.align();
+            writer.put(store.input, store.count);
+            offsets[Section.REFRACTORY.ordinal()] = writer.align();
+            writer.put(store.refractory, store.count);
+            offsets[Section.FIRED.ordinal()] = writer.align();
+            writer.put(store.fired, store.count);
+            offsets[Section.LOCATION_X.ordinal()] = writer.align();
+            writer.put(store.locationX, store.count);
+            offsets[Section.LOCATION_Y.ordinal()] = writer.align();
+            writer.put(store.locationY, store.count);
+            offsets[Section.LOCATION_Z.ordinal()] = writer.align();
+            writer.put(store.locationZ, store.count);
+            offsets[Section.OFFSETS.ordinal()] = writer.align();
+            writer.put(synapses.offsets, synapses.offsets.length);
+            offsets[Section.TARGETS.ordinal()] = writer.align();
+            writer.put(synapses.targets, synapses.targets.length);
+            offsets[Section.WEIGHTS.ordinal()] = writer.align();
+            writer.put(synapses.floatWeights(), synapses.getSynapseCount());
+            offsets[Section.DELAYS.ordinal()] = writer.align();
+            writer.putDelays(synapses);
+            offsets[Section.PENDING.ordinal()] = writer.align();
+            brain.forEachPending(writer);
+            writer.checkFailure();
+            writer.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(store.count)
+                    .putInt(synapses.getSynapseCount())
+                    .putInt(writer.pendingCount)
+                    .putInt(store.refractoryPeriod)
+                    .putLong(brain.getCurrentTick())
+                    .putFloat(store.decay)
+                    .putFloat(store.resetPotential);
+            for (long offset : offsets)
+                header.putLong(offset);
+            header.flip();
+
+            writer.position(0);
+            writer.write(header);
+        } finally {
+            file.close();
+        }
+    }
+
+    int getNeuronCount() {
+        return this.neuronCount;
+    }
+
+    int getSynapseCount() {
+        return this.synapseCount;
+    }
+
+    int getPendingCount() {
+        return this.pendingCount;
+    }
+
+    long getTick() {
+        return this.tick;
+    }
+
+    IntBuffer intColumn(Section section) throws IOException {
+        if (section.elementBytes != 4 || section.floating)
+            throw new IllegalArgumentException(section + " is not an int column");
+
+        return map(section).asIntBuffer();
+    }
+
+    FloatBuffer floatColumn(Section section) throws IOException {
+        if (!section.floating)
+            throw new IllegalArgumentException(section + " is not a float column");
+
+        return map(section).asFloatBuffer();
+    }
+
+    /**
+     * Builds a live brain from the snapshot, bulk copying every mapped column into the brain's
+     * heap columns.
+     */
+    Brain restore(Brain.ExecutionMode executionMode) throws IOException {
+        Brain brain = new Brain(this.neuronCount, executionMode);
+        NeuronStore store = brain.getStore();
+
+        store.decay = this.decay;
+        store.resetPotential = this.resetPotential;
+        store.refractoryPeriod = this.refractoryPeriod;
+
+        intColumn(Section.THRESHOLD).get(store.threshold);
+        floatColumn(Section.POTENTIAL).get(store.potential);
+        floatColumn(Section.INPUT).get(store.input);
+        intColumn(Section.REFRACTORY).get(store.refractory);
+        map(Section.FIRED).get(store.fired);
+        floatColumn(Section.LOCATION_X).get(store.locationX);
+        floatColumn(Section.LOCATION_Y).get(store.locationY);
+        floatColumn(Section.LOCATION_Z).get(store.locationZ);
+
+        int[] offsets = new int[this.neuronCount + 1];
+        int[] targets = new int[this.synapseCount];
+        float[] weights = new float[this.synapseCount];
+        byte[] delays = new byte[this.synapseCount];
+
+        intColumn(Section.OFFSETS).get(offsets);
+        intColumn(Section.TARGETS).get(targets);
+        floatColumn(Section.WEIGHTS).get(weights);
+        map(Section.DELAYS).get(delays);
+
+        brain.setSynapses(new SynapseGraph(this.neuronCount, offsets, targets, weights, delays));
+        brain.restoreClock(this.tick);
+
+        ByteBuffer pending = map(Section.PENDING);
+        for (int i = 0; i < this.pendingCount; i++) {
+            int entry = i * PENDING_ENTRY_BYTES;
+
+            brain.schedule(pending.getLong(entry), pending.getInt(entry + 8), pending.getFloat(entry + 12));
+        }
+
+        return brain;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.file.close();
+    }
+
+    private MappedByteBuffer map(Section section) throws IOException {
+        long bytes = sectionBytes(section);
+
+        if (bytes > Integer.MAX_VALUE)
+            throw new IOException(String.format("section %s is too large to map (%d bytes)", section, bytes));
+
+        MappedByteBuffer buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.sectionOffsets[section.ordinal()], bytes);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        return buffer;
+    }
+
+    private long sectionBytes(Section section) {
+        long elements;
+
+        switch (section) {
+            case OFFSETS:
+                elements = this.neuronCount + 1L;
+                break;
+            case TARGETS:
+            case WEIGHTS:
+            case DELAYS:
+                elements = this.synapseCount;
+                break;
+            case PENDING:
+                elements = this.pendingCount;
+                break;
+            default:
+                elements = this.neuronCount;
+                break;
+        }
+
+        return elements * section.elementBytes;
+    }
+
+    //region inner classes
+    enum Section {
+        THRESHOLD(4, false),
+        POTENTIAL(4, true),
+        INPUT(4, true),
+        REFRACTORY(4, false),
+        FIRED(1, false),
+        LOCATION_X(4, true),
+        LOCATION_Y(4, true),
+        LOCATION_Z(4, true),
+        OFFSETS(4, false),
+        TARGETS(4, false),
+        WEIGHTS(4, true),
+        DELAYS(1, false),
+        PENDING(PENDING_ENTRY_BYTES, false);
+
+        final int elementBytes;
+        final boolean floating;
+
+        Section(int elementBytes, boolean floating) {
+            this.elementBytes = elementBytes;
+            this.floating = floating;
+        }
+    }
+
+    private static final class ColumnWriter implements TimingWheel.PendingVisitor {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private long position;
+        private int pendingCount;
+        private IOException failure;
+
+        ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        void position(long position) throws IOException {
+            flush();
+            this.position = position;
+        }
+
+        long align() throws IOException {
+            while (((this.position + this.buffer.position()) & 7) != 0) {
+                ensure(1);
+                this.buffer.put((byte) 0);
+            }
+
+            return this.position + this.buffer.position();
+        }
+
+        void put(int[] column, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                ensure(4);
+                this.buffer.putInt(column[i]);
+            }
+        }
+
+        void put(float[] column, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                ensure(4);
+                this.buffer.putFloat(column[i]);
+            }
+        }
+
+        void put(byte[] column, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                ensure(1);
+
+                int chunk = Math.min(count - i, this.buffer.remaining());
+                this.buffer.put(column, i, chunk);
+                i += chunk;
+            }
+        }
+
+        void putDelays(SynapseGraph synapses) throws IOException {
+            if (synapses.delays != null) {
+                put(synapses.delays, synapses.delays.length);
+                return;
+            }
+
+            for (int i = 0, count = synapses.getSynapseCount(); i < count; i++) {
+                ensure(1);
+                this.buffer.put((byte) SynapseGraph.DEFAULT_DELAY);
+            }
+        }
+
+        @Override
+        public void visit(long deliveryTick, int target, float weight) {
+            if (this.failure != null)
+                return;
+
+            try {
+                ensure(PENDING_ENTRY_BYTES);
+            } catch (IOException e) {
+                this.failure = e;
+                return;
+            }
+
+            this.buffer.putLong(deliveryTick).putInt(target).putFloat(weight);
+            this.pendingCount++;
+        }
+
+        void checkFailure() throws IOException {
+            if (this.failure != null)
+                throw this.failure;
+        }
+
+        void write(ByteBuffer source) throws IOException {
+            while (source.hasRemaining())
+                this.position += this.channel.write(source, this.position);
+        }
+
+        void flush() throws IOException {
+            this.buffer.flip();
+            write(this.buffer);
+            this.buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (this.buffer.remaining() < bytes)
+                flush();
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,84 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Circular buffer of delayed spike deliveries owned by one worker partition.
+ * <p>
+ * Slot {@code tick & mask} collects every delivery due at {@code tick}; with more slots than the
+ * longest synaptic delay no two pending ticks ever share a slot. Inserting appends to the slot's
+ * primitive columns and draining walks them once and resets the slot, both O(1) per delivery.
+ * Slot columns only grow, so once they have reached the traffic's high-water mark the ring no
+ * longer allocates.
+ */
+final class DelayRing {
+    private static final int INITIAL_SLOT_CAPACITY = 64;
+    private final int mask;
+    private final long[] slotTicks;
+    private final int[][] targets;
+    private final float[][] weights;
+    private final int[] sizes;
+
+    DelayRing(int maxDelay) {
+        int slots = Integer.highestOneBit(maxDelay) << 1;
+
+        this.mask = slots - 1;
+        this.slotTicks = new long[slots];
+        this.targets = new int[slots][INITIAL_SLOT_CAPACITY];
+        this.weights = new float[slots][INITIAL_SLOT_CAPACITY];
+        this.sizes = new int[slots];
+    }
+
+    int getSlotCount() {
+        return this.mask + 1;
+    }
+
+    void schedule(long deliveryTick, int target, float weight) {
+        int slot = (int) (deliveryTick & this.mask);
+        int size = this.sizes[slot];
+
+        if (size == this.targets[slot].length) {
+            this.targets[slot] = Arrays.copyOf(this.targets[slot], size << 1);
+            this.weights[slot] = Arrays.copyOf(this.weights[slot], size << 1);
+        }
+
+        this.slotTicks[slot] = deliveryTick;
+        this.targets[slot][size] = target;
+        this.weights[slot][size] = weight;
+        this.sizes[slot] = size + 1;
+    }
+
+    /**
+     * Adds every delivery due at {@code tick} to {@code input}, wakes its target in
+     * {@code frontier} and empties the slot. Returns the number of deliveries.
+     */
+    int drainInto(long tick, float[] input, ActivityFrontier frontier) {
+        int slot = (int) (tick & this.mask);
+        int size = this.sizes[slot];
+
+        if (size == 0)
+            return 0;
+
+        final int[] targets = this.targets[slot];
+        final float[] weights = this.weights[slot];
+
+        for (int i = 0; i < size; i++) {
+            input[targets[i]] += weights[i];
+            frontier.wake(targets[i]);
+        }
+
+        this.sizes[slot] = 0;
+
+        return size;
+    }
+
+    void forEachPending(TimingWheel.PendingVisitor visitor) {
+        for (int slot = 0; slot <= this.mask; slot++)
+            for (int i = 0; i < this.sizes[slot]; i++)
+                visitor.visit(this.slotTicks[slot], this.targets[slot][i], this.weights[slot][i]);
+    }
+
+    void clear() {
+        Arrays.fill(this.sizes, 0);
+    }
+}
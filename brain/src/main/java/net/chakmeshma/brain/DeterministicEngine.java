@@ -0,0 +1,153 @@
+package net.chakmeshma.brain;
+
+/**
+ * Bulk-synchronous tick task whose results do not depend on the number of workers.
+ * <p>
+ * Neuron state is double buffered: during a tick every worker reads potentials, refractory
+ * counters and spike flags of the previous tick from the store's front columns and writes the
+ * new state of its own partition into back columns, which are swapped in once all workers are
+ * done. Synaptic input is pulled over the transposed synapse graph, whose incoming synapses are
+ * ordered by source id, so each neuron sums its inputs in the same order whatever the partition
+ * layout and the run is bit-identical for any thread count. Nothing is shared for writing within
+ * a tick, hence no locks.
+ */
+final class DeterministicEngine implements TickScheduler.TickTask {
+    private final NeuronStore store;
+    private final TickScheduler scheduler;
+    private final int[] spikes;
+    private float[] backPotential;
+    private int[] backRefractory;
+    private byte[] backFired;
+    private volatile SynapseGraph incoming;
+
+    DeterministicEngine(NeuronStore store, SynapseGraph synapses, TickScheduler scheduler) {
+        this(store, scheduler);
+
+        setSynapses(synapses);
+    }
+
+    /**
+     * Engine for a fork of {@code origin}'s brain, sharing its transposed graph.
+     */
+    DeterministicEngine(NeuronStore store, DeterministicEngine origin, TickScheduler scheduler) {
+        this(store, scheduler);
+
+        this.incoming = origin.incoming;
+    }
+
+    private DeterministicEngine(NeuronStore store, TickScheduler scheduler) {
+        this.store = store;
+        this.scheduler = scheduler;
+        this.spikes = new int[scheduler.getPartitionCount()];
+        this.backPotential = new float[store.count];
+        this.backRefractory = new int[store.count];
+        this.backFired = new byte[store.count];
+    }
+
+    void setSynapses(SynapseGraph synapses) {
+        if (synapses.hasDelays())
+            throw new IllegalArgumentException("the deterministic engine only supports one-tick synaptic delays");
+
+        this.incoming = synapses.transpose();
+    }
+
+    /**
+     * Runs one tick on the scheduler, swaps the state buffers and returns the number of neurons
+     * that fired.
+     */
+    int tick(long tick) {
+        this.scheduler.runTick(this, this.store.count, tick);
+
+        final NeuronStore store = this.store;
+        float[] potential = store.potential;
+        int[] refractory = store.refractory;
+        byte[] fired = store.fired;
+
+        store.potential = this.backPotential;
+        store.refractory = this.backRefractory;
+        store.fired = this.backFired;
+        this.backPotential = potential;
+        this.backRefractory = refractory;
+        this.backFired = fired;
+
+        int total = 0;
+        for (int spikes : this.spikes)
+            total += spikes;
+
+        return total;
+    }
+
+    @Override
+    public void process(int partition, int from, int to, long tick) {
+        final NeuronStore store = this.store;
+        final SynapseGraph incoming = this.incoming;
+        final int[] offsets = incoming.offsets;
+        final int[] sources = incoming.targets;
+        final int[] threshold = store.threshold;
+        final float[] input = store.input;
+        final float[] potential = store.potential;
+        final int[] refractory = store.refractory;
+        final byte[] fired = store.fired;
+        final float[] nextPotential = this.backPotential;
+        final int[] nextRefractory = this.backRefractory;
+        final byte[] nextFired = this.backFired;
+        final float decay = store.decay;
+        final float resetPotential = store.resetPotential;
+        final int refractoryPeriod = store.refractoryPeriod;
+        int spikes = 0;
+
+        for (int i = from; i < to; i++) {
+            float synaptic = input[i];
+            input[i] = 0.0f;
+
+            switch (incoming.encoding) {
+                case FLOAT16: {
+                    final short[] weights = incoming.halfWeights;
+
+                    for (int s = offsets[i], end = offsets[i + 1]; s < end; s++)
+                        if (fired[sources[s]] != 0)
+                            synaptic += HalfFloat.toFloat(weights[s]);
+                    break;
+                }
+                case INT8: {
+                    // each incoming synapse keeps the scale of its source's row, so it decodes to
+                    // the weight the other engines deliver
+                    final byte[] weights = incoming.byteWeights;
+                    final float[] scales = incoming.rowScales;
+
+                    for (int s = offsets[i], end = offsets[i + 1]; s < end; s++)
+                        if (fired[sources[s]] != 0)
+                            synaptic += weights[s] * scales[sources[s]];
+                    break;
+                }
+                default: {
+                    final float[] weights = incoming.weights;
+
+                    for (int s = offsets[i], end = offsets[i + 1]; s < end; s++)
+                        if (fired[sources[s]] != 0)
+                            synaptic += weights[s];
+                    break;
+                }
+            }
+
+            float v = potential[i] * decay + synaptic;
+
+            if (refractory[i] > 0) {
+                nextRefractory[i] = refractory[i] - 1;
+                nextPotential[i] = resetPotential;
+                nextFired[i] = 0;
+            } else if (v >= threshold[i]) {
+                nextRefractory[i] = refractoryPeriod;
+                nextPotential[i] = resetPotential;
+                nextFired[i] = 1;
+                spikes++;
+            } else {
+                nextRefractory[i] = 0;
+                nextPotential[i] = v;
+                nextFired[i] = 0;
+            }
+        }
+
+        this.spikes[partition] = spikes;
+    }
+}
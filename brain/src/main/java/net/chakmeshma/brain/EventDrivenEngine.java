@@ -0,0 +1,190 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Event-driven propagation: a tick only touches neurons that receive a delivery from the
+ * {@link TimingWheel}, so a mostly silent network costs time proportional to its spike count.
+ * <p>
+ * Untouched neurons are not swept; the decay and refractory countdown they would have gone
+ * through on silent ticks is applied lazily in {@link #catchUp(int, long)} when they are next
+ * touched.
+ */
+final class EventDrivenEngine implements TimingWheel.DeliverySink {
+    private final NeuronStore store;
+    private final TimingWheel wheel;
+    private final long[] lastUpdate;
+    private final int[] touched;
+    private final int[] firedLastTick;
+    private SynapseGraph synapses;
+    private ProceduralSynapses.Generator generator;
+    private SynapseOverflow overflow;
+    private final ProceduralSynapses.SynapseVisitor spikeSink = new ProceduralSynapses.SynapseVisitor() {
+        @Override
+        public void visit(int target, float weight) {
+            EventDrivenEngine.this.wheel.schedule(EventDrivenEngine.this.tick + SynapseGraph.DEFAULT_DELAY, target, weight);
+        }
+    };
+    private int touchedCount;
+    private int firedLastTickCount;
+    private long tick;
+
+    EventDrivenEngine(NeuronStore store, SynapseGraph synapses, long tick) {
+        this.store = store;
+        this.synapses = synapses;
+        this.wheel = new TimingWheel(tick);
+        this.lastUpdate = new long[store.count];
+        this.touched = new int[store.count];
+        this.firedLastTick = new int[store.count];
+        this.tick = tick;
+
+        Arrays.fill(this.lastUpdate, tick - 1);
+
+        for (int i = 0; i < store.count; i++)
+            if (store.fired[i] != 0)
+                this.firedLastTick[this.firedLastTickCount++] = i;
+    }
+
+    void setSynapses(SynapseGraph synapses) {
+        this.synapses = synapses;
+    }
+
+    /**
+     * Regenerates fan-outs from {@code procedural} instead of reading the graph, or reads the
+     * graph again when {@code procedural} is {@code null}.
+     */
+    void setProcedural(ProceduralSynapses procedural) {
+        this.generator = procedural == null ? null : procedural.newGenerator();
+    }
+
+    /**
+     * Continues every fan-out with the source's segment of {@code overflow}, or reads the graph
+     * alone when it is {@code null}.
+     */
+    void setOverflow(SynapseOverflow overflow) {
+        this.overflow = overflow;
+    }
+
+    long getTick() {
+        return this.tick;
+    }
+
+    int getPendingCount() {
+        return this.wheel.size();
+    }
+
+    /**
+     * Number of neurons that fired in the last processed tick.
+     */
+    int getFiredCount() {
+        return this.firedLastTickCount;
+    }
+
+    int getFired(int index) {
+        return this.firedLastTick[index];
+    }
+
+    /**
+     * Schedules {@code current} to arrive at {@code neuron} at {@code deliveryTick}.
+     */
+    void stimulate(int neuron, float current, long deliveryTick) {
+        this.wheel.schedule(Math.max(deliveryTick, this.tick), neuron, current);
+    }
+
+    void forEachPending(TimingWheel.PendingVisitor visitor) {
+        this.wheel.forEachPending(visitor);
+    }
+
+    /**
+     * Processes the current tick and returns the number of neurons that fired.
+     */
+    int tick() {
+        final NeuronStore store = this.store;
+        final long tick = this.tick;
+
+        for (int i = 0; i < this.firedLastTickCount; i++)
+            store.fired[this.firedLastTick[i]] = 0;
+        this.firedLastTickCount = 0;
+        this.touchedCount = 0;
+
+        this.wheel.advance(this);
+
+        final SynapseGraph synapses = this.synapses;
+        final int[] offsets = synapses.offsets;
+        final int[] targets = synapses.targets;
+        final byte[] delays = synapses.delays;
+
+        for (int t = 0; t < this.touchedCount; t++) {
+            int neuron = this.touched[t];
+
+            if (store.update(neuron, neuron + 1) == 0)
+                continue;
+
+            this.firedLastTick[this.firedLastTickCount++] = neuron;
+
+            if (this.generator != null) {
+                this.generator.generate(neuron, this.spikeSink);
+                continue;
+            }
+
+            for (int i = offsets[neuron], end = offsets[neuron + 1]; i < end; i++)
+                this.wheel.schedule(tick + (delays == null ? SynapseGraph.DEFAULT_DELAY : delays[i] & 0xFF), targets[i], synapses.weight(neuron, i));
+
+            if (this.overflow != null)
+                for (int k = 0, count = this.overflow.count(neuron); k < count; k++)
+                    this.wheel.schedule(tick + (this.overflow.delays(neuron)[k] & 0xFF), this.overflow.targets(neuron)[k], this.overflow.weights(neuron)[k]);
+        }
+
+        this.tick++;
+
+        return this.firedLastTickCount;
+    }
+
+    @Override
+    public void deliver(int target, float weight) {
+        if (this.lastUpdate[target] != this.tick) {
+            catchUp(target, this.tick);
+
+            this.lastUpdate[target] = this.tick;
+            this.touched[this.touchedCount++] = target;
+        }
+
+        this.store.input[target] += weight;
+    }
+
+    /**
+     * Brings every neuron up to date with the silent ticks before the current one, e.g. before
+     * its potentials are read or another engine takes over the store.
+     */
+    void synchronize() {
+        for (int i = 0; i < this.store.count; i++) {
+            catchUp(i, this.tick);
+            this.lastUpdate[i] = this.tick - 1;
+        }
+    }
+
+    /**
+     * Applies the silent ticks between the neuron's last update and {@code tick} (exclusive):
+     * the refractory countdown first, then plain decay of the membrane potential.
+     */
+    private void catchUp(int neuron, long tick) {
+        final NeuronStore store = this.store;
+        long silent = tick - this.lastUpdate[neuron] - 1;
+
+        if (silent <= 0)
+            return;
+
+        int refractory = store.refractory[neuron];
+
+        if (refractory > 0) {
+            long spent = Math.min(refractory, silent);
+
+            store.refractory[neuron] = (int) (refractory - spent);
+            store.potential[neuron] = store.resetPotential;
+            silent -= spent;
+        }
+
+        if (silent > 0 && store.potential[neuron] != 0.0f)
+            store.potential[neuron] *= (float) Math.pow(store.decay, silent);
+    }
+}
@@ -0,0 +1,444 @@
+package net.chakmeshma.brain;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Dense layered evaluation of a {@link Brain.BrainType#FEED_FORWARD} brain.
+ * <p>
+ * Layer {@code l} maps {@code sizes[l]} inputs to {@code sizes[l + 1]} outputs through a
+ * row-major {@code sizes[l + 1] x sizes[l]} weight matrix and a bias vector. A forward pass is
+ * one matrix-vector product per layer, computed in cache tiles ({@link #COLUMN_TILE} inputs at a
+ * time for {@link #ROW_BLOCK} rows at once) and split across output rows with fork-join. Every
+ * row is summed in the same order however the rows are split, so results do not depend on the
+ * pool size.
+ */
+final class FeedForwardNetwork {
+    static final int COLUMN_TILE = 1024;
+    static final int ROW_BLOCK = 4;
+    static final long DEFAULT_SEED = 0xFEEDL;
+    private static final int SPLIT_WORK = 1 << 15;
+    private static final ForkJoinPool SHARED_POOL = new ForkJoinPool();
+    final int[] sizes;
+    final float[][] weights;
+    final float[][] biases;
+    final Activation activation;
+    private final ForkJoinPool pool;
+    private final Workspace defaultWorkspace;
+
+    FeedForwardNetwork(int[] sizes, Activation activation, long seed) {
+        this(sizes, activation, seed, SHARED_POOL);
+    }
+
+    FeedForwardNetwork(int[] sizes, Activation activation, long seed, ForkJoinPool pool) {
+        if (sizes.length < 2)
+            throw new IllegalArgumentException("a feed-forward network needs at least an input and an output layer");
+
+        this.sizes = sizes.clone();
+        this.activation = activation;
+        this.pool = pool;
+        this.weights = new float[sizes.length - 1][];
+        this.biases = new float[sizes.length - 1][];
+
+        Random random = new Random(seed);
+
+        for (int l = 0; l < sizes.length - 1; l++) {
+            if (sizes[l] < 1 || sizes[l + 1] < 1)
+                throw new IllegalArgumentException("layer sizes must be positive");
+
+            float limit = (float) Math.sqrt(6.0 / (sizes[l] + sizes[l + 1]));
+
+            this.weights[l] = new float[sizes[l + 1] * sizes[l]];
+            this.biases[l] = new float[sizes[l + 1]];
+
+            for (int i = 0; i < this.weights[l].length; i++)
+                this.weights[l][i] = (random.nextFloat() * 2.0f - 1.0f) * limit;
+        }
+
+        this.defaultWorkspace = new Workspace();
+    }
+
+    private FeedForwardNetwork(FeedForwardNetwork origin) {
+        this.sizes = origin.sizes;
+        this.activation = origin.activation;
+        this.pool = origin.pool;
+        this.weights = new float[origin.weights.length][];
+        this.biases = new float[origin.biases.length][];
+
+        for (int l = 0; l < origin.weights.length; l++) {
+            this.weights[l] = origin.weights[l].clone();
+            this.biases[l] = origin.biases[l].clone();
+        }
+
+        this.defaultWorkspace = new Workspace();
+    }
+
+    /**
+     * Returns a network with its own copy of this network's weights and biases, e.g. for
+     * training without affecting whoever else evaluates this one.
+     */
+    FeedForwardNetwork copy() {
+        return new FeedForwardNetwork(this);
+    }
+
+    ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    int getLayerCount() {
+        return this.sizes.length;
+    }
+
+    int getInputSize() {
+        return this.sizes[0];
+    }
+
+    int getOutputSize() {
+        return this.sizes[this.sizes.length - 1];
+    }
+
+    int getNeuronCount() {
+        int count = 0;
+
+        for (int size : this.sizes)
+            count += size;
+
+        return count;
+    }
+
+    /**
+     * First neuron id of layer {@code layer}; layers occupy consecutive id ranges.
+     */
+    int layerStart(int layer) {
+        int start = 0;
+
+        for (int l = 0; l < layer; l++)
+            start += this.sizes[l];
+
+        return start;
+    }
+
+    /**
+     * Forward pass using the network's own workspace; not safe for concurrent callers.
+     */
+    float[] forward(float[] input, float[] output) {
+        return forward(input, output, this.defaultWorkspace);
+    }
+
+    /**
+     * Forward pass of one input vector. {@code workspace} receives every layer's activations and
+     * must not be shared by concurrent calls.
+     */
+    float[] forward(float[] input, float[] output, Workspace workspace) {
+        if (input.length != this.sizes[0])
+            throw new IllegalArgumentException(String.format("input has %d values, network expects %d", input.length, this.sizes[0]));
+        if (output.length != getOutputSize())
+            throw new IllegalArgumentException(String.format("output has room for %d values, network produces %d", output.length, getOutputSize()));
+
+        System.arraycopy(input, 0, workspace.activations[0], 0, input.length);
+
+        for (int l = 0; l < this.weights.length; l++) {
+            float[] in = workspace.activations[l];
+            float[] out = workspace.activations[l + 1];
+            int rows = this.sizes[l + 1];
+            int columns = this.sizes[l];
+
+            if ((long) rows * columns <= SPLIT_WORK)
+                multiply(this.weights[l], this.biases[l], columns, in, out, 0, rows, this.activation);
+            else
+                this.pool.invoke(new LayerTask(this.weights[l], this.biases[l], columns, rows, in, out, 1, 0, rows, this.activation));
+        }
+
+        System.arraycopy(workspace.activations[this.weights.length], 0, output, 0, output.length);
+
+        return output;
+    }
+
+    /**
+     * Forward pass of {@code batch} input vectors stored row-major in {@code inputs}, writing the
+     * output vectors row-major into {@code outputs}. Each layer is one matrix-matrix product, so
+     * a weight loaded from memory is used for every sample of the batch. Results are bit-identical
+     * to {@link #forward(float[], float[], Workspace)} for each sample.
+     */
+    void forwardBatch(float[] inputs, int batch, float[] outputs, BatchWorkspace workspace) {
+        if (batch > workspace.capacity)
+            throw new IllegalArgumentException(String.format("batch of %d exceeds workspace capacity %d", batch, workspace.capacity));
+
+        System.arraycopy(inputs, 0, workspace.activations[0], 0, batch * this.sizes[0]);
+
+        for (int l = 0; l < this.weights.length; l++) {
+            float[] in = workspace.activations[l];
+            float[] out = workspace.activations[l + 1];
+            int rows = this.sizes[l + 1];
+            int columns = this.sizes[l];
+
+            if ((long) rows * columns * batch <= SPLIT_WORK)
+                multiplyBatch(this.weights[l], this.biases[l], columns, rows, in, out, batch, 0, rows, this.activation);
+            else
+                this.pool.invoke(new LayerTask(this.weights[l], this.biases[l], columns, rows, in, out, batch, 0, rows, this.activation));
+        }
+
+        System.arraycopy(workspace.activations[this.weights.length], 0, outputs, 0, batch * getOutputSize());
+    }
+
+    /**
+     * Computes {@code out[r] = activation(bias[r] + W[r] . in)} for rows {@code [from, to)}.
+     * Columns are walked in {@link #COLUMN_TILE}-wide tiles, and each tile of {@code in} is
+     * applied to every row of the range, {@link #ROW_BLOCK} rows at a time, while it is still in
+     * L1. Partial sums are carried in {@code out}, so every row is still summed in column order.
+     */
+    static void multiply(float[] weights, float[] bias, int columns, float[] in, float[] out, int from, int to, Activation activation) {
+        for (int row = from; row < to; row++)
+            out[row] = 0.0f;
+
+        for (int tile = 0; tile < columns; tile += COLUMN_TILE) {
+            int tileEnd = Math.min(tile + COLUMN_TILE, columns);
+            int row = from;
+
+            for (; row + ROW_BLOCK <= to; row += ROW_BLOCK) {
+                int base0 = row * columns;
+                int base1 = base0 + columns;
+                int base2 = base1 + columns;
+                int base3 = base2 + columns;
+                float sum0 = out[row], sum1 = out[row + 1], sum2 = out[row + 2], sum3 = out[row + 3];
+
+                for (int c = tile; c < tileEnd; c++) {
+                    float x = in[c];
+
+                    sum0 += weights[base0 + c] * x;
+                    sum1 += weights[base1 + c] * x;
+                    sum2 += weights[base2 + c] * x;
+                    sum3 += weights[base3 + c] * x;
+                }
+
+                out[row] = sum0;
+                out[row + 1] = sum1;
+                out[row + 2] = sum2;
+                out[row + 3] = sum3;
+            }
+
+            for (; row < to; row++) {
+                int base = row * columns;
+                float sum = out[row];
+
+                for (int c = tile; c < tileEnd; c++)
+                    sum += weights[base + c] * in[c];
+
+                out[row] = sum;
+            }
+        }
+
+        for (int row = from; row < to; row++)
+            out[row] = activation.apply(out[row] + bias[row]);
+    }
+
+    /**
+     * Computes rows {@code [from, to)} of {@code out = activation(in . W^T + bias)} for
+     * {@code batch} samples, {@code in} being {@code batch x columns} and {@code out}
+     * {@code batch x rows}, both row-major. Blocks of {@link #ROW_BLOCK} rows by
+     * {@link #ROW_BLOCK} samples are accumulated in sixteen registers over each column tile, so
+     * every weight and input loaded is used four times. As in {@link #multiply}, partial sums are
+     * carried in {@code out} and every output is summed in column order.
+     */
+    static void multiplyBatch(float[] weights, float[] bias, int columns, int rows, float[] in, float[] out, int batch, int from, int to, Activation activation) {
+        for (int b = 0; b < batch; b++)
+            for (int row = from; row < to; row++)
+                out[b * rows + row] = 0.0f;
+
+        for (int tile = 0; tile < columns; tile += COLUMN_TILE) {
+            int tileEnd = Math.min(tile + COLUMN_TILE, columns);
+            int row = from;
+
+            for (; row + ROW_BLOCK <= to; row += ROW_BLOCK) {
+                int w0 = row * columns, w1 = w0 + columns, w2 = w1 + columns, w3 = w2 + columns;
+                int b = 0;
+
+                for (; b + ROW_BLOCK <= batch; b += ROW_BLOCK) {
+                    int x0 = b * columns, x1 = x0 + columns, x2 = x1 + columns, x3 = x2 + columns;
+                    int o0 = b * rows + row, o1 = o0 + rows, o2 = o1 + rows, o3 = o2 + rows;
+                    float s00 = out[o0], s01 = out[o0 + 1], s02 = out[o0 + 2], s03 = out[o0 + 3];
+                    float s10 = out[o1], s11 = out[o1 + 1], s12 = out[o1 + 2], s13 = out[o1 + 3];
+                    float s20 = out[o2], s21 = out[o2 + 1], s22 = out[o2 + 2], s23 = out[o2 + 3];
+                    float s30 = out[o3], s31 = out[o3 + 1], s32 = out[o3 + 2], s33 = out[o3 + 3];
+
+                    for (int c = tile; c < tileEnd; c++) {
+                        float a0 = weights[w0 + c], a1 = weights[w1 + c], a2 = weights[w2 + c], a3 = weights[w3 + c];
+                        float v0 = in[x0 + c], v1 = in[x1 + c], v2 = in[x2 + c], v3 = in[x3 + c];
+
+                        s00 += a0 * v0; s01 += a1 * v0; s02 += a2 * v0; s03 += a3 * v0;
+                        s10 += a0 * v1; s11 += a1 * v1; s12 += a2 * v1; s13 += a3 * v1;
+                        s20 += a0 * v2; s21 += a1 * v2; s22 += a2 * v2; s23 += a3 * v2;
+                        s30 += a0 * v3; s31 += a1 * v3; s32 += a2 * v3; s33 += a3 * v3;
+                    }
+
+                    out[o0] = s00; out[o0 + 1] = s01; out[o0 + 2] = s02; out[o0 + 3] = s03;
+                    out[o1] = s10; out[o1 + 1] = s11; out[o1 + 2] = s12; out[o1 + 3] = s13;
+                    out[o2] = s20; out[o2 + 1] = s21; out[o2 + 2] = s22; out[o2 + 3] = s23;
+                    out[o3] = s30; out[o3 + 1] = s31; out[o3 + 2] = s32; out[o3 + 3] = s33;
+                }
+
+                for (; b < batch; b++) {
+                    int x = b * columns;
+                    int o = b * rows + row;
+                    float s0 = out[o], s1 = out[o + 1], s2 = out[o + 2], s3 = out[o + 3];
+
+                    for (int c = tile; c < tileEnd; c++) {
+                        float v = in[x + c];
+
+                        s0 += weights[w0 + c] * v;
+                        s1 += weights[w1 + c] * v;
+                        s2 += weights[w2 + c] * v;
+                        s3 += weights[w3 + c] * v;
+                    }
+
+                    out[o] = s0; out[o + 1] = s1; out[o + 2] = s2; out[o + 3] = s3;
+                }
+            }
+
+            for (; row < to; row++) {
+                int w = row * columns;
+
+                for (int b = 0; b < batch; b++) {
+                    int x = b * columns;
+                    float sum = out[b * rows + row];
+
+                    for (int c = tile; c < tileEnd; c++)
+                        sum += weights[w + c] * in[x + c];
+
+                    out[b * rows + row] = sum;
+                }
+            }
+        }
+
+        for (int b = 0; b < batch; b++)
+            for (int row = from; row < to; row++)
+                out[b * rows + row] = activation.apply(out[b * rows + row] + bias[row]);
+    }
+
+    //region inner classes
+    enum Activation {
+        SIGMOID {
+            @Override
+            float apply(float x) {
+                return (float) (1.0 / (1.0 + Math.exp(-x)));
+            }
+
+            @Override
+            float derivative(float y) {
+                return y * (1.0f - y);
+            }
+        },
+        RELU {
+            @Override
+            float apply(float x) {
+                return x > 0.0f ? x : 0.0f;
+            }
+
+            @Override
+            float derivative(float y) {
+                return y > 0.0f ? 1.0f : 0.0f;
+            }
+        },
+        IDENTITY {
+            @Override
+            float apply(float x) {
+                return x;
+            }
+
+            @Override
+            float derivative(float y) {
+                return 1.0f;
+            }
+        };
+
+        abstract float apply(float x);
+
+        /**
+         * Derivative expressed in terms of the activation's output {@code y}.
+         */
+        abstract float derivative(float y);
+    }
+
+    /**
+     * Per-caller activation buffers, one per layer, reused across forward passes.
+     */
+    final class Workspace {
+        final float[][] activations;
+
+        Workspace() {
+            this.activations = new float[FeedForwardNetwork.this.sizes.length][];
+
+            for (int l = 0; l < this.activations.length; l++)
+                this.activations[l] = new float[FeedForwardNetwork.this.sizes[l]];
+        }
+    }
+
+    /**
+     * Per-caller activation buffers for batches of up to {@code capacity} samples, each layer
+     * stored as a row-major {@code capacity x size} matrix.
+     */
+    final class BatchWorkspace {
+        final int capacity;
+        final float[][] activations;
+
+        BatchWorkspace(int capacity) {
+            this.capacity = capacity;
+            this.activations = new float[FeedForwardNetwork.this.sizes.length][];
+
+            for (int l = 0; l < this.activations.length; l++)
+                this.activations[l] = new float[capacity * FeedForwardNetwork.this.sizes[l]];
+        }
+    }
+
+    /**
+     * Splits the output rows of one layer across the fork-join pool.
+     */
+    private static final class LayerTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final float[] weights;
+        private final float[] bias;
+        private final int columns;
+        private final int rows;
+        private final float[] in;
+        private final float[] out;
+        private final int batch;
+        private final int from;
+        private final int to;
+        private final Activation activation;
+
+        LayerTask(float[] weights, float[] bias, int columns, int rows, float[] in, float[] out, int batch, int from, int to, Activation activation) {
+            this.weights = weights;
+            this.bias = bias;
+            this.columns = columns;
+            this.rows = rows;
+            this.in = in;
+            this.out = out;
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.activation = activation;
+        }
+
+        @Override
+        protected void compute() {
+            int span = this.to - this.from;
+
+            // fewer than two row blocks cannot be split on a block boundary: middle would be from
+            if (span < 2 * ROW_BLOCK || (long) span * this.columns * this.batch <= SPLIT_WORK) {
+                if (this.batch == 1)
+                    multiply(this.weights, this.bias, this.columns, this.in, this.out, this.from, this.to, this.activation);
+                else
+                    multiplyBatch(this.weights, this.bias, this.columns, this.rows, this.in, this.out, this.batch, this.from, this.to, this.activation);
+                return;
+            }
+
+            // split on a row block boundary so blocks stay whole
+            int middle = this.from + (span / 2 / ROW_BLOCK) * ROW_BLOCK;
+
+            invokeAll(new LayerTask(this.weights, this.bias, this.columns, this.rows, this.in, this.out, this.batch, this.from, middle, this.activation),
+                    new LayerTask(this.weights, this.bias, this.columns, this.rows, this.in, this.out, this.batch, middle, this.to, this.activation));
+        }
+    }
+    //endregion
+}
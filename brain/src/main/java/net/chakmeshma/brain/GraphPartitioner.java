@@ -0,0 +1,472 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Multilevel partitioner assigning neurons to the workers of a {@link TickScheduler} so that few
+ * synapses cross partitions while every partition routes about as many synapses.
+ * <p>
+ * The seed cuts the Morton order of the neuron locations into runs of equal load, so spatially
+ * clustered connectivity starts out mostly inside partitions. The synapse graph, taken as
+ * undirected, is then coarsened METIS-style by repeatedly merging each vertex with the neighbour
+ * of the same partition it shares the most synapses with. From the coarsest level back to the
+ * neurons themselves, greedy boundary refinement moves vertices to the partition holding most of
+ * their synapses as long as the balance allows it; a move on a coarse level carries a whole
+ * cluster of neurons at once.
+ * <p>
+ * A neuron's load is its outgoing synapse count plus one for its own update.
+ */
+final class GraphPartitioner {
+    static final float DEFAULT_IMBALANCE = 0.05f;
+    // coarsening stops at this many vertices per partition, or once matching stops shrinking
+    private static final int COARSEST_VERTICES_PER_PARTITION = 64;
+    private static final float MIN_SHRINK = 0.95f;
+    private static final int REFINEMENT_PASSES = 8;
+    // Morton cells per axis of the location bounding box
+    private static final int SEED_CELLS_PER_AXIS = 1024;
+    private static final long MATCHING_SEED = 0x5DEECE66DL;
+
+    private GraphPartitioner() {
+    }
+
+    /**
+     * Splits the neurons of {@code store} into {@code partitionCount} partitions, no partition
+     * exceeding its share of the total load by more than a factor {@code 1 + imbalance} unless a
+     * single neuron's load does.
+     */
+    static Partitioning partition(NeuronStore store, SynapseGraph synapses, int partitionCount, float imbalance) {
+        if (partitionCount < 1)
+            throw new IllegalArgumentException("partition count must be positive");
+        if (!(imbalance >= 0.0f))
+            throw new IllegalArgumentException("imbalance must not be negative");
+
+        int count = store.count;
+        int[] order = seedOrder(store);
+        long[] loads = new long[count];
+        long totalLoad = 0;
+
+        for (int i = 0; i < count; i++) {
+            loads[i] = synapses.fanOut(i) + 1L;
+            totalLoad += loads[i];
+        }
+
+        int[] seed = new int[count];
+        long before = 0;
+
+        for (int position = 0; position < count; position++) {
+            int neuron = order[position];
+
+            // the partition holding the middle of the neuron's share of the load
+            seed[neuron] = (int) Math.min(partitionCount - 1, (2 * before + loads[neuron]) * partitionCount / (2 * totalLoad));
+            before += loads[neuron];
+        }
+
+        long maxLoad = (long) Math.ceil((double) totalLoad / partitionCount * (1.0 + imbalance));
+        long seedCut = cutSynapses(synapses, seed);
+
+        // coarsen
+        Level finest = Level.undirected(synapses, loads);
+        Level[] levels = new Level[]{finest};
+        int[][] partOf = new int[][]{seed};
+        Random random = new Random(MATCHING_SEED);
+
+        while (true) {
+            Level level = levels[levels.length - 1];
+
+            if (level.count <= (long) partitionCount * COARSEST_VERTICES_PER_PARTITION)
+                break;
+
+            int[] part = partOf[partOf.length - 1];
+            int coarseCount = level.match(part, maxLoad / COARSEST_VERTICES_PER_PARTITION + 1, random);
+
+            if (coarseCount > level.count * MIN_SHRINK)
+                break;
+
+            Level coarse = level.contract(coarseCount);
+            int[] coarsePart = new int[coarseCount];
+
+            for (int v = 0; v < level.count; v++)
+                coarsePart[level.coarseOf[v]] = part[v];
+
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            levels[levels.length - 1] = coarse;
+            partOf = Arrays.copyOf(partOf, partOf.length + 1);
+            partOf[partOf.length - 1] = coarsePart;
+        }
+
+        // refine and project back
+        long[] partLoads = new long[partitionCount];
+        for (int i = 0; i < count; i++)
+            partLoads[seed[i]] += loads[i];
+
+        for (int l = levels.length - 1; ; l--) {
+            levels[l].refine(partOf[l], partLoads, maxLoad);
+
+            if (l == 0)
+                break;
+
+            Level fine = levels[l - 1];
+            int[] finePart = partOf[l - 1];
+
+            for (int v = 0; v < fine.count; v++)
+                finePart[v] = partOf[l][fine.coarseOf[v]];
+        }
+
+        return new Partitioning(partitionCount, partOf[0], order, partLoads, cutSynapses(synapses, partOf[0]), seedCut);
+    }
+
+    /**
+     * Neuron ids in Morton order of their location, on a grid fine enough to tell neighbours
+     * apart; id order when every neuron sits at the same spot.
+     */
+    private static int[] seedOrder(NeuronStore store) {
+        float extent = 0.0f;
+
+        for (float[] axis : new float[][]{store.locationX, store.locationY, store.locationZ}) {
+            float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < store.count; i++) {
+                min = Math.min(min, axis[i]);
+                max = Math.max(max, axis[i]);
+            }
+
+            if (store.count > 0)
+                extent = Math.max(extent, max - min);
+        }
+
+        return new SpatialIndex(store, extent > 0.0f ? extent / SEED_CELLS_PER_AXIS : 1.0f).getOrder();
+    }
+
+    /**
+     * Number of synapses whose source and target lie in different partitions.
+     */
+    static long cutSynapses(SynapseGraph synapses, int[] partition) {
+        long cut = 0;
+
+        for (int source = 0; source < synapses.neuronCount; source++)
+            for (int i = synapses.offsets[source], end = synapses.offsets[source + 1]; i < end; i++)
+                if (partition[synapses.targets[i]] != partition[source])
+                    cut++;
+
+        return cut;
+    }
+
+    //region inner classes
+    /**
+     * Assignment of neurons to partitions.
+     */
+    static final class Partitioning {
+        private final int partitionCount;
+        private final int[] partition;
+        private final int[] order;
+        private final long[] loads;
+        private final long cutSynapses;
+        private final long seedCutSynapses;
+
+        private Partitioning(int partitionCount, int[] partition, int[] order, long[] loads, long cutSynapses, long seedCutSynapses) {
+            this.partitionCount = partitionCount;
+            this.partition = partition;
+            this.order = order;
+            this.loads = loads;
+            this.cutSynapses = cutSynapses;
+            this.seedCutSynapses = seedCutSynapses;
+        }
+
+        int getPartitionCount() {
+            return this.partitionCount;
+        }
+
+        int getPartition(int neuron) {
+            return this.partition[neuron];
+        }
+
+        long getLoad(int partition) {
+            return this.loads[partition];
+        }
+
+        long getCutSynapses() {
+            return this.cutSynapses;
+        }
+
+        /**
+         * Cut synapses of the location-based seed, before refinement.
+         */
+        long getSeedCutSynapses() {
+            return this.seedCutSynapses;
+        }
+
+        /**
+         * New id of every neuron when neurons are numbered partition by partition, in Morton
+         * order of their location within each partition.
+         */
+        int[] renumbering() {
+            int[] cursor = starts();
+            int[] newIds = new int[this.partition.length];
+
+            for (int neuron : this.order)
+                newIds[neuron] = cursor[this.partition[neuron]]++;
+
+            return newIds;
+        }
+
+        /**
+         * First renumbered id of every partition, followed by the neuron count; the boundaries to
+         * hand to {@link TickScheduler#setBoundaries(int[])}.
+         */
+        int[] starts() {
+            int[] starts = new int[this.partitionCount + 1];
+
+            for (int part : this.partition)
+                starts[part + 1]++;
+            for (int p = 0; p < this.partitionCount; p++)
+                starts[p + 1] += starts[p];
+
+            return starts;
+        }
+    }
+
+    /**
+     * One level of the coarsening hierarchy: an undirected graph in CSR form whose edge weights
+     * count the synapses between two vertices and whose vertex weights are loads.
+     */
+    private static final class Level {
+        final int count;
+        final int[] offsets;
+        final int[] adjacent;
+        final int[] edgeWeights;
+        final long[] vertexWeights;
+        // vertex of the next coarser level each vertex is merged into
+        int[] coarseOf;
+
+        Level(int count, int[] offsets, int[] adjacent, int[] edgeWeights, long[] vertexWeights) {
+            this.count = count;
+            this.offsets = offsets;
+            this.adjacent = adjacent;
+            this.edgeWeights = edgeWeights;
+            this.vertexWeights = vertexWeights;
+        }
+
+        /**
+         * The synapse graph with directions dropped, self-synapses removed and parallel
+         * synapses merged into weighted edges.
+         */
+        static Level undirected(SynapseGraph synapses, long[] loads) {
+            int count = synapses.neuronCount;
+            int[] offsets = new int[count + 1];
+
+            for (int source = 0; source < count; source++) {
+                for (int i = synapses.offsets[source], end = synapses.offsets[source + 1]; i < end; i++) {
+                    int target = synapses.targets[i];
+
+                    if (target != source) {
+                        offsets[source + 1]++;
+                        offsets[target + 1]++;
+                    }
+                }
+            }
+
+            for (int v = 0; v < count; v++)
+                offsets[v + 1] += offsets[v];
+
+            int[] cursor = Arrays.copyOf(offsets, count);
+            int[] adjacent = new int[offsets[count]];
+            int[] edgeWeights = new int[offsets[count]];
+
+            for (int source = 0; source < count; source++) {
+                for (int i = synapses.offsets[source], end = synapses.offsets[source + 1]; i < end; i++) {
+                    int target = synapses.targets[i];
+
+                    if (target != source) {
+                        adjacent[cursor[source]++] = target;
+                        adjacent[cursor[target]++] = source;
+                    }
+                }
+            }
+
+            Arrays.fill(edgeWeights, 1);
+
+            Level raw = new Level(count, offsets, adjacent, edgeWeights, loads);
+            raw.coarseOf = new int[count];
+            for (int v = 0; v < count; v++)
+                raw.coarseOf[v] = v;
+
+            return raw.contract(count);
+        }
+
+        /**
+         * Heavy-edge matching: visiting vertices in random order, pairs each unmatched vertex
+         * with the unmatched neighbour in its partition it shares the heaviest edge with, unless
+         * the pair would outweigh {@code maxWeight}. Fills {@link #coarseOf} and returns the
+         * number of coarse vertices.
+         */
+        int match(int[] partition, long maxWeight, Random random) {
+            int[] visit = new int[this.count];
+            for (int v = 0; v < this.count; v++)
+                visit[v] = v;
+            for (int v = this.count - 1; v > 0; v--) {
+                int other = random.nextInt(v + 1);
+                int swap = visit[v];
+
+                visit[v] = visit[other];
+                visit[other] = swap;
+            }
+
+            this.coarseOf = new int[this.count];
+            Arrays.fill(this.coarseOf, -1);
+
+            int coarseCount = 0;
+
+            for (int v : visit) {
+                if (this.coarseOf[v] >= 0)
+                    continue;
+
+                int best = -1;
+                int bestWeight = 0;
+
+                for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++) {
+                    int u = this.adjacent[i];
+
+                    if (this.coarseOf[u] >= 0 || partition[u] != partition[v] || this.vertexWeights[u] + this.vertexWeights[v] > maxWeight)
+                        continue;
+
+                    if (this.edgeWeights[i] > bestWeight) {
+                        best = u;
+                        bestWeight = this.edgeWeights[i];
+                    }
+                }
+
+                this.coarseOf[v] = coarseCount;
+                if (best >= 0)
+                    this.coarseOf[best] = coarseCount;
+                coarseCount++;
+            }
+
+            return coarseCount;
+        }
+
+        /**
+         * Builds the level obtained by merging vertices as given by {@link #coarseOf}, summing
+         * the weights of merged vertices and of parallel edges and dropping internal ones.
+         */
+        Level contract(int coarseCount) {
+            // fine vertices grouped by coarse vertex
+            int[] memberStart = new int[coarseCount + 1];
+            for (int v = 0; v < this.count; v++)
+                memberStart[this.coarseOf[v] + 1]++;
+            for (int c = 0; c < coarseCount; c++)
+                memberStart[c + 1] += memberStart[c];
+
+            int[] cursor = Arrays.copyOf(memberStart, coarseCount);
+            int[] members = new int[this.count];
+            for (int v = 0; v < this.count; v++)
+                members[cursor[this.coarseOf[v]]++] = v;
+
+            int[] offsets = new int[coarseCount + 1];
+            int[] adjacent = new int[this.adjacent.length];
+            int[] edgeWeights = new int[this.adjacent.length];
+            long[] vertexWeights = new long[coarseCount];
+            // position of each coarse neighbour within the row being built
+            int[] slot = new int[coarseCount];
+            Arrays.fill(slot, -1);
+
+            int size = 0;
+
+            for (int c = 0; c < coarseCount; c++) {
+                offsets[c] = size;
+
+                for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+                    int v = members[m];
+
+                    vertexWeights[c] += this.vertexWeights[v];
+
+                    for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++) {
+                        int u = this.coarseOf[this.adjacent[i]];
+
+                        if (u == c)
+                            continue;
+
+                        if (slot[u] < 0) {
+                            slot[u] = size;
+                            adjacent[size] = u;
+                            edgeWeights[size] = 0;
+                            size++;
+                        }
+
+                        edgeWeights[slot[u]] += this.edgeWeights[i];
+                    }
+                }
+
+                for (int i = offsets[c]; i < size; i++)
+                    slot[adjacent[i]] = -1;
+            }
+            offsets[coarseCount] = size;
+
+            return new Level(coarseCount, offsets, Arrays.copyOf(adjacent, size), Arrays.copyOf(edgeWeights, size), vertexWeights);
+        }
+
+        /**
+         * Greedy boundary refinement: moves each vertex to the partition it has the heaviest
+         * edges to when that cuts fewer edges, or as many but evens out the loads, without
+         * pushing the target over {@code maxLoad}. Repeats until a pass moves nothing.
+         */
+        void refine(int[] partition, long[] partLoads, long maxLoad) {
+            int partitionCount = partLoads.length;
+            long[] connection = new long[partitionCount];
+            int[] touched = new int[partitionCount];
+
+            for (int pass = 0; pass < REFINEMENT_PASSES; pass++) {
+                int moves = 0;
+
+                for (int v = 0; v < this.count; v++) {
+                    int own = partition[v];
+                    int touchedCount = 0;
+
+                    for (int i = this.offsets[v]; i < this.offsets[v + 1]; i++) {
+                        int p = partition[this.adjacent[i]];
+
+                        if (connection[p] == 0)
+                            touched[touchedCount++] = p;
+
+                        connection[p] += this.edgeWeights[i];
+                    }
+
+                    long weight = this.vertexWeights[v];
+                    long internal = connection[own];
+                    int best = -1;
+                    long bestGain = 0;
+
+                    for (int t = 0; t < touchedCount; t++) {
+                        int p = touched[t];
+
+                        if (p == own || partLoads[p] + weight > maxLoad)
+                            continue;
+
+                        long gain = connection[p] - internal;
+                        boolean evens = gain == 0 && partLoads[p] + weight < partLoads[own];
+
+                        if ((gain > 0 || evens) && (best < 0 || gain > bestGain || (gain == bestGain && partLoads[p] < partLoads[best]))) {
+                            best = p;
+                            bestGain = gain;
+                        }
+                    }
+
+                    for (int t = 0; t < touchedCount; t++)
+                        connection[touched[t]] = 0;
+
+                    if (best < 0)
+                        continue;
+
+                    partition[v] = best;
+                    partLoads[own] -= weight;
+                    partLoads[best] += weight;
+                    moves++;
+                }
+
+                if (moves == 0)
+                    break;
+            }
+        }
+    }
+    //endregion
+}
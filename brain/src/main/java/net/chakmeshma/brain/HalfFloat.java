@@ -0,0 +1,78 @@
+package net.chakmeshma.brain;
+
+/**
+ * IEEE 754 binary16 conversions. Decoding goes through a 65536-entry table, so reading a half
+ * precision weight is one load.
+ */
+final class HalfFloat {
+    private static final float[] DECODED = new float[1 << 16];
+
+    static {
+        for (int half = 0; half < DECODED.length; half++)
+            DECODED[half] = decode(half);
+    }
+
+    private HalfFloat() {
+    }
+
+    static float toFloat(short half) {
+        return DECODED[half & 0xFFFF];
+    }
+
+    /**
+     * Rounds {@code value} to the nearest half precision value, ties to even; values beyond the
+     * half range become infinities.
+     */
+    static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+
+        if (exponent == 0xFF)
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+
+        int halfExponent = exponent - 127 + 15;
+
+        if (halfExponent >= 0x1F)
+            return (short) (sign | 0x7C00);
+
+        if (halfExponent <= 0) {
+            if (halfExponent < -10)
+                return (short) sign;
+
+            // subnormal: shift the full significand down to units of 2^-24
+            int significand = mantissa | 0x800000;
+            int shift = 14 - halfExponent;
+
+            return (short) (sign | round(significand >> shift, significand & ((1 << shift) - 1), 1 << (shift - 1)));
+        }
+
+        // a carry out of the mantissa correctly bumps the exponent, up to infinity
+        return (short) (sign | round((halfExponent << 10) | (mantissa >> 13), mantissa & 0x1FFF, 0x1000));
+    }
+
+    private static int round(int truncated, int remainder, int halfway) {
+        if (remainder > halfway || (remainder == halfway && (truncated & 1) != 0))
+            return truncated + 1;
+
+        return truncated;
+    }
+
+    private static float decode(int half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+
+        if (exponent == 0x1F)
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+
+        if (exponent == 0) {
+            float magnitude = mantissa * 0x1p-24f;
+
+            return sign == 0 ? magnitude : -magnitude;
+        }
+
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+}
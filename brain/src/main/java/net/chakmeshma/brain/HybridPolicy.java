@@ -0,0 +1,108 @@
+package net.chakmeshma.brain;
+
+/**
+ * Chooses between clock-driven sweeps and event-driven propagation for a
+ * {@link Brain.ExecutionMode#HYBRID} brain from the fraction of neurons firing per tick. Every
+ * spike costs the event-driven engine a queued delivery per synapse, while a sweep costs the same
+ * whatever the spike count, so sweeps win once enough of the network fires.
+ * <p>
+ * The fraction is smoothed with an exponential moving average and compared against two
+ * thresholds: propagation turns event-driven when activity falls below the lower one and
+ * clock-driven when it rises above the upper one. The gap between them, and a minimum number of
+ * ticks between switches, keep a workload hovering around one threshold from switching back and
+ * forth.
+ */
+final class HybridPolicy {
+    static final float DEFAULT_EVENT_BELOW = 0.02f;
+    static final float DEFAULT_CLOCK_ABOVE = 0.08f;
+    static final int DEFAULT_MIN_DWELL = 32;
+    // weight of the latest tick in the moving average
+    private static final float SMOOTHING = 0.25f;
+    private float eventBelow;
+    private float clockAbove;
+    private final int minDwell;
+    private float activity;
+    private boolean eventDriven;
+    private int dwell;
+    private int switchCount;
+
+    HybridPolicy() {
+        this(DEFAULT_EVENT_BELOW, DEFAULT_CLOCK_ABOVE, DEFAULT_MIN_DWELL);
+    }
+
+    HybridPolicy(float eventBelow, float clockAbove, int minDwell) {
+        if (minDwell < 1)
+            throw new IllegalArgumentException("minimum dwell must be positive");
+
+        setThresholds(eventBelow, clockAbove);
+
+        this.minDwell = minDwell;
+        this.activity = 1.0f;
+    }
+
+    /**
+     * Independent copy carrying on from this policy's measurements, for a forked brain.
+     */
+    HybridPolicy copy() {
+        HybridPolicy copy = new HybridPolicy(this.eventBelow, this.clockAbove, this.minDwell);
+
+        copy.activity = this.activity;
+        copy.eventDriven = this.eventDriven;
+        copy.dwell = this.dwell;
+        copy.switchCount = this.switchCount;
+
+        return copy;
+    }
+
+    void setThresholds(float eventBelow, float clockAbove) {
+        if (!(eventBelow >= 0.0f && eventBelow < clockAbove && clockAbove <= 1.0f))
+            throw new IllegalArgumentException(String.format("thresholds %g and %g must satisfy 0 <= eventBelow < clockAbove <= 1", eventBelow, clockAbove));
+
+        this.eventBelow = eventBelow;
+        this.clockAbove = clockAbove;
+    }
+
+    /**
+     * Records that {@code fired} of {@code count} neurons fired in the last tick and returns
+     * whether the next tick should be event-driven.
+     */
+    boolean observe(int fired, int count) {
+        float fraction = count == 0 ? 0.0f : (float) fired / count;
+
+        this.activity += SMOOTHING * (fraction - this.activity);
+
+        if (++this.dwell < this.minDwell)
+            return this.eventDriven;
+
+        if (this.eventDriven ? this.activity > this.clockAbove : this.activity < this.eventBelow) {
+            this.eventDriven = !this.eventDriven;
+            this.dwell = 0;
+            this.switchCount++;
+        }
+
+        return this.eventDriven;
+    }
+
+    float getEventBelow() {
+        return this.eventBelow;
+    }
+
+    float getClockAbove() {
+        return this.clockAbove;
+    }
+
+    /**
+     * Smoothed fraction of neurons firing per tick.
+     */
+    float getActivity() {
+        return this.activity;
+    }
+
+    boolean isEventDriven() {
+        return this.eventDriven;
+    }
+
+    int getSwitchCount() {
+        return this.switchCount;
+    }
+}
@@ -0,0 +1,252 @@
+package net.chakmeshma.brain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves concurrent forward passes of one {@link FeedForwardNetwork} by collecting requests into
+ * micro-batches.
+ * <p>
+ * A single dispatcher thread takes the first waiting request, then keeps collecting until the
+ * batch holds {@code maxBatchSize} requests or {@code maxWait} has passed since the first one
+ * arrived. The batch is evaluated as one matrix-matrix product per layer over the shared weights
+ * and every caller gets its own output through the {@link Future} returned by
+ * {@link #submit(float[])}. Batch buffers are allocated once.
+ */
+public final class InferenceServer {
+    private final FeedForwardNetwork network;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Dispatcher dispatcher;
+    private volatile boolean running;
+
+    InferenceServer(FeedForwardNetwork network, int maxBatchSize, long maxWait, TimeUnit unit) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("maximum batch size must be positive");
+        if (maxWait < 0)
+            throw new IllegalArgumentException("maximum wait must not be negative");
+
+        this.network = network;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = unit.toNanos(maxWait);
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * 16);
+        this.running = true;
+        this.dispatcher = new Dispatcher();
+        this.dispatcher.start();
+    }
+
+    public int getMaxBatchSize() {
+        return this.maxBatchSize;
+    }
+
+    /**
+     * Queues {@code input} for evaluation, blocking while the queue is full. The input array must
+     * not be modified until the returned future completes.
+     */
+    public Future<float[]> submit(float[] input) throws InterruptedException {
+        if (input.length != this.network.getInputSize())
+            throw new IllegalArgumentException(String.format("input has %d values, network expects %d", input.length, this.network.getInputSize()));
+        if (!this.running)
+            throw new IllegalStateException("inference server has been shut down");
+
+        Request request = new Request(input);
+
+        this.queue.put(request);
+
+        // a request that raced with shutdown is failed here rather than left pending forever
+        if (!this.running)
+            request.fail(new IllegalStateException("inference server has been shut down"));
+
+        return request;
+    }
+
+    /**
+     * Stops the dispatcher. Requests still queued are failed with an
+     * {@link IllegalStateException}.
+     */
+    public void shutdown() {
+        if (!this.running)
+            return;
+
+        this.running = false;
+        this.dispatcher.interrupt();
+    }
+
+    //region inner classes
+    private final class Dispatcher extends Thread {
+        private final List<Request> batch;
+        private final float[] inputs;
+        private final float[] outputs;
+        private final FeedForwardNetwork.BatchWorkspace workspace;
+
+        Dispatcher() {
+            super("brain-inference");
+
+            int capacity = InferenceServer.this.maxBatchSize;
+            FeedForwardNetwork network = InferenceServer.this.network;
+
+            this.batch = new ArrayList<>(capacity);
+            this.inputs = new float[capacity * network.getInputSize()];
+            this.outputs = new float[capacity * network.getOutputSize()];
+            this.workspace = network.new BatchWorkspace(capacity);
+
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (InferenceServer.this.running) {
+                    collect();
+                    evaluate();
+                }
+            } catch (InterruptedException e) {
+                // shut down
+            } finally {
+                IllegalStateException stopped = new IllegalStateException("inference server has been shut down");
+
+                for (Request request : this.batch)
+                    request.fail(stopped);
+
+                Request request;
+                while ((request = InferenceServer.this.queue.poll()) != null)
+                    request.fail(stopped);
+            }
+        }
+
+        private void collect() throws InterruptedException {
+            BlockingQueue<Request> queue = InferenceServer.this.queue;
+
+            this.batch.add(queue.take());
+
+            long deadline = System.nanoTime() + InferenceServer.this.maxWaitNanos;
+
+            while (this.batch.size() < InferenceServer.this.maxBatchSize) {
+                // take whatever is already queued without waiting
+                if (queue.drainTo(this.batch, InferenceServer.this.maxBatchSize - this.batch.size()) > 0)
+                    continue;
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+
+                Request next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (next == null)
+                    break;
+
+                this.batch.add(next);
+            }
+        }
+
+        private void evaluate() {
+            FeedForwardNetwork network = InferenceServer.this.network;
+            int inputSize = network.getInputSize();
+            int outputSize = network.getOutputSize();
+            int size = this.batch.size();
+
+            for (int b = 0; b < size; b++)
+                System.arraycopy(this.batch.get(b).input, 0, this.inputs, b * inputSize, inputSize);
+
+            try {
+                network.forwardBatch(this.inputs, size, this.outputs, this.workspace);
+            } catch (RuntimeException e) {
+                for (Request request : this.batch)
+                    request.fail(e);
+                this.batch.clear();
+                return;
+            }
+
+            for (int b = 0; b < size; b++) {
+                float[] output = new float[outputSize];
+
+                System.arraycopy(this.outputs, b * outputSize, output, 0, outputSize);
+                this.batch.get(b).complete(output);
+            }
+
+            this.batch.clear();
+        }
+    }
+
+    /**
+     * One queued forward pass, completed at most once by the dispatcher.
+     */
+    private static final class Request implements Future<float[]> {
+        private static final int PENDING = 0;
+        private static final int COMPLETED = 1;
+        private static final int FAILED = 2;
+        final float[] input;
+        // settled once, by whichever of complete and fail claims it first
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile float[] output;
+        private volatile Throwable failure;
+
+        Request(float[] input) {
+            this.input = input;
+        }
+
+        void complete(float[] output) {
+            if (!this.state.compareAndSet(PENDING, COMPLETED))
+                return;
+
+            this.output = output;
+            this.done.countDown();
+        }
+
+        void fail(Throwable failure) {
+            if (!this.state.compareAndSet(PENDING, FAILED))
+                return;
+
+            this.failure = failure;
+            this.done.countDown();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            // requests are evaluated in bulk and cannot be withdrawn from a batch
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        @Override
+        public float[] get() throws InterruptedException, ExecutionException {
+            this.done.await();
+
+            return result();
+        }
+
+        @Override
+        public float[] get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!this.done.await(timeout, unit))
+                throw new TimeoutException();
+
+            return result();
+        }
+
+        private float[] result() throws ExecutionException {
+            if (this.state.get() == FAILED)
+                throw new ExecutionException(this.failure);
+
+            return this.output;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,406 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Coarse regions of a brain simulated as mean-field populations: each population stands for the
+ * neurons of one grid cell and tracks their mean membrane potential and the fraction of them
+ * firing per tick, instead of individual spikes.
+ * <p>
+ * The synapses touching coarse neurons are summed into three projections with the same delays:
+ * from detailed neurons into populations, between populations, and from populations onto
+ * detailed neurons. Spikes of detailed neurons reach a population as input spread over its
+ * members; a population drives its projections with its rate, each target receiving the input
+ * the population's members would deliver on average.
+ * <p>
+ * Members that are not refractory are taken to have potentials spread uniformly over half the
+ * mean threshold either side of their mean, so they fire in proportion to how far that spread
+ * reaches past the threshold; those that fired sit out the store's refractory period and then
+ * rejoin at the reset potential.
+ */
+final class MeanFieldPopulations implements TimingWheel.DeliverySink {
+    // half-width of the members' potential distribution, relative to their mean threshold
+    static final float POTENTIAL_SPREAD = 0.5f;
+    private final int count;
+    private final int[] populationOf;
+    private final int[] size;
+    private final float[] threshold;
+    private final float decay;
+    private final float resetPotential;
+    private final int refractoryPeriod;
+    // detailed neuron -> population, population -> population, population -> detailed neuron
+    private final SynapseGraph inward;
+    private final SynapseGraph lateral;
+    private final SynapseGraph outward;
+    // detailed neurons with synapses into a population
+    private final int[] boundary;
+    // mean potential of the members neither refractory nor just fired
+    private final float[] potential;
+    private final float[] rate;
+    private final float[] input;
+    // rates of the last refractoryPeriod + 1 ticks, one row per tick
+    private final float[] recentRates;
+    private final TimingWheel wheel;
+
+    private MeanFieldPopulations(int count, int[] populationOf, int[] size, float[] threshold, NeuronStore store, SynapseGraph inward, SynapseGraph lateral, SynapseGraph outward, int[] boundary, long tick) {
+        this.count = count;
+        this.populationOf = populationOf;
+        this.size = size;
+        this.threshold = threshold;
+        this.decay = store.decay;
+        this.resetPotential = store.resetPotential;
+        this.refractoryPeriod = store.refractoryPeriod;
+        this.inward = inward;
+        this.lateral = lateral;
+        this.outward = outward;
+        this.boundary = boundary;
+        this.potential = new float[count];
+        this.rate = new float[count];
+        this.input = new float[count];
+        this.recentRates = new float[(store.refractoryPeriod + 1) * count];
+        this.wheel = new TimingWheel(tick);
+    }
+
+    private MeanFieldPopulations(MeanFieldPopulations origin) {
+        this.count = origin.count;
+        this.populationOf = origin.populationOf;
+        this.size = origin.size;
+        this.threshold = origin.threshold;
+        this.decay = origin.decay;
+        this.resetPotential = origin.resetPotential;
+        this.refractoryPeriod = origin.refractoryPeriod;
+        this.inward = origin.inward;
+        this.lateral = origin.lateral;
+        this.outward = origin.outward;
+        this.boundary = origin.boundary;
+        this.potential = origin.potential.clone();
+        this.rate = origin.rate.clone();
+        this.input = origin.input.clone();
+        this.recentRates = origin.recentRates.clone();
+        // a copy hands out deliveries in the same order, so the input sums are the same
+        this.wheel = origin.wheel.copy();
+    }
+
+    /**
+     * Groups the neurons set in {@code coarse} into populations by the cell of side
+     * {@code regionSize} holding their location, numbered in Morton order of the cells, and
+     * sums the synapses of {@code graph} touching them into projections. The populations start
+     * out from the members' mean potential and the fraction of them that fired.
+     */
+    static MeanFieldPopulations coarsen(NeuronStore store, SynapseGraph graph, boolean[] coarse, float regionSize, long tick) {
+        if (!(regionSize > 0.0f))
+            throw new IllegalArgumentException("region size must be positive");
+
+        int n = store.count;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        int coarseCount = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (!coarse[i])
+                continue;
+
+            minX = Math.min(minX, store.locationX[i]);
+            minY = Math.min(minY, store.locationY[i]);
+            minZ = Math.min(minZ, store.locationZ[i]);
+            coarseCount++;
+        }
+
+        long[] keys = new long[coarseCount];
+        long[] cellOf = new long[n];
+
+        for (int i = 0, k = 0; i < n; i++) {
+            if (!coarse[i])
+                continue;
+
+            cellOf[i] = SpatialIndex.morton(cell(store.locationX[i], minX, regionSize), cell(store.locationY[i], minY, regionSize), cell(store.locationZ[i], minZ, regionSize));
+            keys[k++] = cellOf[i];
+        }
+
+        Arrays.sort(keys);
+
+        int count = 0;
+        for (int k = 0; k < coarseCount; k++)
+            if (k == 0 || keys[k] != keys[k - 1])
+                keys[count++] = keys[k];
+
+        int[] populationOf = new int[n];
+        int[] size = new int[count];
+        double[] thresholdSum = new double[count];
+        double[] potentialSum = new double[count];
+        int[] firedCount = new int[count];
+
+        for (int i = 0; i < n; i++) {
+            if (!coarse[i]) {
+                populationOf[i] = -1;
+                continue;
+            }
+
+            int p = Arrays.binarySearch(keys, 0, count, cellOf[i]);
+
+            populationOf[i] = p;
+            size[p]++;
+            thresholdSum[p] += store.threshold[i];
+            potentialSum[p] += store.potential[i];
+            firedCount[p] += store.fired[i];
+        }
+
+        float[] threshold = new float[count];
+        for (int p = 0; p < count; p++)
+            threshold[p] = (float) (thresholdSum[p] / size[p]);
+
+        Aggregator inward = new Aggregator(n, count);
+        Aggregator lateral = new Aggregator(count, count);
+        Aggregator outward = new Aggregator(count, n);
+
+        for (int source = 0; source < n; source++) {
+            int from = populationOf[source];
+
+            for (int i = graph.begin(source), end = graph.end(source); i < end; i++) {
+                int target = graph.targets[i];
+                int to = populationOf[target];
+
+                if (from < 0 && to >= 0)
+                    inward.add(source, to, graph.weight(source, i), graph.delay(i));
+                else if (from >= 0 && to >= 0)
+                    lateral.add(from, to, graph.weight(source, i), graph.delay(i));
+                else if (from >= 0)
+                    outward.add(from, target, graph.weight(source, i), graph.delay(i));
+            }
+        }
+
+        SynapseGraph inwardGraph = inward.build();
+        int boundaryCount = 0;
+        int[] boundary = new int[n];
+
+        for (int source = 0; source < n; source++)
+            if (inwardGraph.fanOut(source) != 0)
+                boundary[boundaryCount++] = source;
+
+        MeanFieldPopulations populations = new MeanFieldPopulations(count, populationOf, size, threshold, store, inwardGraph, lateral.build(), outward.build(), Arrays.copyOf(boundary, boundaryCount), tick);
+
+        for (int p = 0; p < count; p++) {
+            populations.potential[p] = (float) (potentialSum[p] / size[p]);
+            populations.rate[p] = (float) firedCount[p] / size[p];
+        }
+
+        return populations;
+    }
+
+    private static int cell(float coordinate, float origin, float regionSize) {
+        return Math.min((int) ((coordinate - origin) / regionSize), (1 << 21) - 1);
+    }
+
+    /**
+     * Independent copy in this state, sharing the projections.
+     */
+    MeanFieldPopulations copy() {
+        return new MeanFieldPopulations(this);
+    }
+
+    int getCount() {
+        return this.count;
+    }
+
+    /**
+     * Population of neuron {@code id}, or {@code -1} if it is simulated in detail.
+     */
+    int populationOf(int id) {
+        return this.populationOf[id];
+    }
+
+    boolean isCoarse(int id) {
+        return this.populationOf[id] >= 0;
+    }
+
+    int getSize(int population) {
+        return this.size[population];
+    }
+
+    /**
+     * Fraction of the population's members that fired in the last tick.
+     */
+    float getRate(int population) {
+        return this.rate[population];
+    }
+
+    float getPotential(int population) {
+        return this.potential[population];
+    }
+
+    /**
+     * Schedules {@code current} to arrive at coarse neuron {@code neuron} at
+     * {@code deliveryTick}, as input to its population.
+     */
+    void stimulate(int neuron, float current, long deliveryTick) {
+        this.wheel.schedule(Math.max(deliveryTick, this.wheel.getNow()), this.populationOf[neuron], current);
+    }
+
+    /**
+     * Advances the populations through {@code tick}, once the detailed neurons have: their spikes
+     * are sent into the populations, which then update and hand the input they send to detailed
+     * neurons to {@code sink}, due at later ticks.
+     */
+    void tick(long tick, NeuronStore store, TimingWheel.PendingVisitor sink) {
+        final byte[] fired = store.fired;
+        final SynapseGraph inward = this.inward;
+
+        for (int source : this.boundary) {
+            if (fired[source] == 0)
+                continue;
+
+            for (int i = inward.begin(source), end = inward.end(source); i < end; i++)
+                this.wheel.schedule(tick + inward.delay(i), inward.targets[i], inward.weights[i]);
+        }
+
+        this.wheel.advance(this);
+
+        final int history = this.refractoryPeriod + 1;
+        final int row = (int) (tick % history) * this.count;
+
+        for (int p = 0; p < this.count; p++) {
+            // members that fired refractoryPeriod + 1 ticks ago rejoin at the reset potential
+            float returning = this.recentRates[row + p];
+            float refractory = -returning;
+            for (int k = 0; k < history; k++)
+                refractory += this.recentRates[k * this.count + p];
+
+            float available = Math.max(0.0f, 1.0f - refractory);
+            float staying = Math.max(0.0f, available - returning);
+            float v = available > 0.0f ? (staying * this.potential[p] + returning * this.resetPotential) / available : this.resetPotential;
+
+            v = v * this.decay + this.input[p] / this.size[p];
+            this.input[p] = 0.0f;
+
+            float threshold = this.threshold[p];
+            float spread = POTENTIAL_SPREAD * threshold;
+            float crossing = spread > 0.0f ? Math.max(0.0f, Math.min(1.0f, (v + spread - threshold) / (2.0f * spread))) : (v >= threshold ? 1.0f : 0.0f);
+            float r = available * crossing;
+
+            // the members left below the threshold are the lower part of the spread
+            if (crossing >= 1.0f)
+                this.potential[p] = this.resetPotential;
+            else if (crossing > 0.0f)
+                this.potential[p] = (v - spread + threshold) * 0.5f;
+            else
+                this.potential[p] = v;
+            this.rate[p] = r;
+            this.recentRates[row + p] = r;
+        }
+
+        for (int p = 0; p < this.count; p++) {
+            float r = this.rate[p];
+
+            if (r == 0.0f)
+                continue;
+
+            for (int i = this.lateral.begin(p), end = this.lateral.end(p); i < end; i++)
+                this.wheel.schedule(tick + this.lateral.delay(i), this.lateral.targets[i], r * this.lateral.weights[i]);
+            for (int i = this.outward.begin(p), end = this.outward.end(p); i < end; i++)
+                sink.visit(tick + this.outward.delay(i), this.outward.targets[i], r * this.outward.weights[i]);
+        }
+    }
+
+    @Override
+    public void deliver(int target, float weight) {
+        this.input[target] += weight;
+    }
+
+    long footprintBytes() {
+        return 4L * this.populationOf.length + this.inward.footprintBytes() + this.lateral.footprintBytes() + this.outward.footprintBytes() + 4L * this.boundary.length + (4L * 5 + 4L * (this.refractoryPeriod + 1)) * this.count;
+    }
+
+    //region inner classes
+    /**
+     * Sums synapses between the same row and target with the same delay into one, keeping the
+     * order in which each row's targets first appear.
+     */
+    private static final class Aggregator {
+        private final int rowCount;
+        private final int targetCount;
+        private int[] rows = new int[64];
+        private int[] targets = new int[64];
+        private float[] weights = new float[64];
+        private byte[] delays = new byte[64];
+        private int size;
+
+        Aggregator(int rowCount, int targetCount) {
+            this.rowCount = rowCount;
+            this.targetCount = targetCount;
+        }
+
+        void add(int row, int target, float weight, int delay) {
+            if (this.size == this.rows.length) {
+                int capacity = this.size << 1;
+
+                this.rows = Arrays.copyOf(this.rows, capacity);
+                this.targets = Arrays.copyOf(this.targets, capacity);
+                this.weights = Arrays.copyOf(this.weights, capacity);
+                this.delays = Arrays.copyOf(this.delays, capacity);
+            }
+
+            this.rows[this.size] = row;
+            this.targets[this.size] = target;
+            this.weights[this.size] = weight;
+            this.delays[this.size] = (byte) delay;
+            this.size++;
+        }
+
+        SynapseGraph build() {
+            // counting sort by row, stable
+            int[] start = new int[this.rowCount + 1];
+            for (int i = 0; i < this.size; i++)
+                start[this.rows[i] + 1]++;
+            for (int r = 0; r < this.rowCount; r++)
+                start[r + 1] += start[r];
+
+            int[] order = new int[this.size];
+            int[] fill = Arrays.copyOf(start, this.rowCount);
+            for (int i = 0; i < this.size; i++)
+                order[fill[this.rows[i]]++] = i;
+
+            int[] offsets = new int[this.rowCount + 1];
+            int[] targets = new int[this.size];
+            float[] weights = new float[this.size];
+            byte[] delays = new byte[this.size];
+            // first merged synapse onto each target in the current row
+            int[] first = new int[this.targetCount];
+            int[] firstRow = new int[this.targetCount];
+            int merged = 0;
+
+            Arrays.fill(firstRow, -1);
+
+            for (int r = 0; r < this.rowCount; r++) {
+                for (int k = start[r]; k < start[r + 1]; k++) {
+                    int i = order[k];
+                    int target = this.targets[i];
+                    int slot = -1;
+
+                    if (firstRow[target] == r) {
+                        for (int j = first[target]; j < merged; j++) {
+                            if (targets[j] == target && delays[j] == this.delays[i]) {
+                                slot = j;
+                                break;
+                            }
+                        }
+                    } else {
+                        firstRow[target] = r;
+                        first[target] = merged;
+                    }
+
+                    if (slot < 0) {
+                        slot = merged++;
+                        targets[slot] = target;
+                        delays[slot] = this.delays[i];
+                    }
+
+                    weights[slot] += this.weights[i];
+                }
+
+                offsets[r + 1] = merged;
+            }
+
+            return new SynapseGraph(this.rowCount, offsets, Arrays.copyOf(targets, merged), Arrays.copyOf(weights, merged), Arrays.copyOf(delays, merged));
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,12 @@
+package net.chakmeshma.brain;
+
+/**
+ * Leaky integrate-and-fire sweep over a range of a {@link NeuronStore}. Every implementation must
+ * produce bit-identical state to {@link ScalarMembraneKernel}.
+ */
+interface MembraneKernel {
+    /**
+     * Updates neurons {@code [from, to)} and returns the number that fired.
+     */
+    int update(NeuronStore store, int from, int to);
+}
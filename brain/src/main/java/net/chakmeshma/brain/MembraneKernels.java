@@ -0,0 +1,26 @@
+package net.chakmeshma.brain;
+
+/**
+ * Picks the membrane kernel at runtime: the Vector API kernel when it was built (the
+ * {@code vector} source set) and the running JVM has the {@code jdk.incubator.vector} module,
+ * the scalar kernel otherwise. Setting the {@code brain.kernel} system property to
+ * {@code scalar} forces the fallback.
+ */
+final class MembraneKernels {
+    static final String VECTOR_KERNEL_CLASS = "net.chakmeshma.brain.VectorMembraneKernel";
+    static final MembraneKernel SELECTED = select();
+
+    private MembraneKernels() {
+    }
+
+    private static MembraneKernel select() {
+        if ("scalar".equals(System.getProperty("brain.kernel")))
+            return ScalarMembraneKernel.INSTANCE;
+
+        try {
+            return (MembraneKernel) Class.forName(VECTOR_KERNEL_CLASS).newInstance();
+        } catch (ClassNotFoundException | LinkageError | InstantiationException | IllegalAccessException e) {
+            return ScalarMembraneKernel.INSTANCE;
+        }
+    }
+}
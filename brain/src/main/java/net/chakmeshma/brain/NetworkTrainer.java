@@ -0,0 +1,316 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Mini-batch gradient descent on the squared error of a {@link FeedForwardNetwork}, with
+ * gradients computed by backpropagation.
+ * <p>
+ * Each batch is split into contiguous slices, one per worker. A worker runs its slice forward
+ * and backward as matrix products over the whole slice and sums the gradients into buffers of
+ * its own, so no lock is taken while gradients are computed. Once every worker is done, the
+ * workers split the parameters between them, each summing the workers' gradients for its share
+ * in worker order and updating the weights in place. All buffers are allocated up front and the
+ * worker tasks are reused, so training does not allocate per sample or per batch; for a given
+ * worker count, the trained weights do not depend on how the pool schedules the workers.
+ */
+final class NetworkTrainer {
+    private final FeedForwardNetwork network;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final Worker[] workers;
+    private final BatchTask batchTask = new BatchTask();
+    private float[] inputs;
+    private float[] targets;
+    private int batchStart;
+    private int batchCount;
+    private float step;
+    private Phase phase;
+
+    NetworkTrainer(FeedForwardNetwork network, int batchSize) {
+        this(network, batchSize, network.getPool().getParallelism());
+    }
+
+    NetworkTrainer(FeedForwardNetwork network, int batchSize, int workerCount) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batch size must be positive");
+        if (workerCount < 1)
+            throw new IllegalArgumentException("worker count must be positive");
+
+        this.network = network;
+        this.pool = network.getPool();
+        this.batchSize = batchSize;
+        this.workers = new Worker[Math.min(workerCount, batchSize)];
+
+        for (int w = 0; w < this.workers.length; w++)
+            this.workers[w] = new Worker(w);
+    }
+
+    FeedForwardNetwork getNetwork() {
+        return this.network;
+    }
+
+    int getBatchSize() {
+        return this.batchSize;
+    }
+
+    int getWorkerCount() {
+        return this.workers.length;
+    }
+
+    /**
+     * Runs one epoch over {@code sampleCount} samples in order, {@code inputs} and
+     * {@code targets} holding one row per sample, and updates the weights after each batch by
+     * {@code learningRate} times the batch's mean gradient.
+     *
+     * @return the mean squared error over the epoch, each batch measured before its update
+     */
+    float train(float[] inputs, float[] targets, int sampleCount, float learningRate) {
+        if ((long) sampleCount * this.network.getInputSize() > inputs.length)
+            throw new IllegalArgumentException(String.format("inputs hold fewer than %d samples", sampleCount));
+        if ((long) sampleCount * this.network.getOutputSize() > targets.length)
+            throw new IllegalArgumentException(String.format("targets hold fewer than %d samples", sampleCount));
+
+        this.inputs = inputs;
+        this.targets = targets;
+
+        double error = 0.0;
+
+        try {
+            for (int start = 0; start < sampleCount; start += this.batchSize) {
+                this.batchStart = start;
+                this.batchCount = Math.min(this.batchSize, sampleCount - start);
+                this.step = learningRate / this.batchCount;
+
+                run(Phase.GRADIENT);
+                run(Phase.UPDATE);
+
+                for (Worker worker : this.workers)
+                    error += worker.error;
+            }
+        } finally {
+            this.inputs = null;
+            this.targets = null;
+        }
+
+        return sampleCount == 0 ? 0.0f : (float) (error / ((long) sampleCount * this.network.getOutputSize()));
+    }
+
+    private void run(Phase phase) {
+        this.phase = phase;
+
+        if (this.workers.length == 1) {
+            this.workers[0].run();
+            return;
+        }
+
+        this.batchTask.reinitialize();
+        this.pool.invoke(this.batchTask);
+    }
+
+    /**
+     * Adds {@code delta^T . in} to {@code gradient} and the column sums of {@code delta} to
+     * {@code biasGradient}, {@code delta} being {@code count x rows} and {@code in}
+     * {@code count x columns}, both row-major. Each row of the gradient is summed over the
+     * samples in order while it stays in cache.
+     */
+    static void accumulateGradient(float[] delta, float[] in, int count, int rows, int columns, float[] gradient, float[] biasGradient) {
+        for (int row = 0; row < rows; row++) {
+            int base = row * columns;
+            float biasSum = biasGradient[row];
+
+            for (int b = 0; b < count; b++) {
+                float d = delta[b * rows + row];
+
+                if (d == 0.0f)
+                    continue;
+
+                int x = b * columns;
+                biasSum += d;
+
+                for (int c = 0; c < columns; c++)
+                    gradient[base + c] += d * in[x + c];
+            }
+
+            biasGradient[row] = biasSum;
+        }
+    }
+
+    /**
+     * Computes the error terms of a layer's inputs, {@code (delta . W) * activation'(in)}, into
+     * {@code inDelta}, from the error terms {@code delta} of its outputs.
+     */
+    static void backpropagate(float[] weights, float[] delta, float[] in, int count, int rows, int columns, float[] inDelta, FeedForwardNetwork.Activation activation) {
+        Arrays.fill(inDelta, 0, count * columns, 0.0f);
+
+        for (int b = 0; b < count; b++) {
+            int x = b * columns;
+
+            for (int row = 0; row < rows; row++) {
+                float d = delta[b * rows + row];
+
+                if (d == 0.0f)
+                    continue;
+
+                int base = row * columns;
+
+                for (int c = 0; c < columns; c++)
+                    inDelta[x + c] += d * weights[base + c];
+            }
+
+            for (int c = 0; c < columns; c++)
+                inDelta[x + c] *= activation.derivative(in[x + c]);
+        }
+    }
+
+    //region inner classes
+    private enum Phase {
+        GRADIENT,
+        UPDATE
+    }
+
+    /**
+     * Runs every worker in the current phase on the pool.
+     */
+    private final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (Worker worker : NetworkTrainer.this.workers)
+                worker.reinitialize();
+
+            invokeAll(NetworkTrainer.this.workers);
+        }
+    }
+
+    /**
+     * One worker's slice of each batch, with its own activations, error terms and gradients.
+     */
+    private final class Worker extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private final FeedForwardNetwork.BatchWorkspace workspace;
+        private final float[][] deltas;
+        private final float[][] gradients;
+        private final float[][] biasGradients;
+        private double error;
+
+        Worker(int index) {
+            FeedForwardNetwork network = NetworkTrainer.this.network;
+            int workerCount = NetworkTrainer.this.workers.length;
+            int capacity = (NetworkTrainer.this.batchSize + workerCount - 1) / workerCount;
+            int layers = network.weights.length;
+
+            this.index = index;
+            this.workspace = network.new BatchWorkspace(capacity);
+            this.deltas = new float[layers + 1][];
+            this.gradients = new float[layers][];
+            this.biasGradients = new float[layers][];
+
+            // layer 0 takes no error term; its inputs are the samples
+            for (int l = 1; l <= layers; l++)
+                this.deltas[l] = new float[capacity * network.sizes[l]];
+            for (int l = 0; l < layers; l++) {
+                this.gradients[l] = new float[network.weights[l].length];
+                this.biasGradients[l] = new float[network.biases[l].length];
+            }
+        }
+
+        @Override
+        protected void compute() {
+            run();
+        }
+
+        void run() {
+            if (NetworkTrainer.this.phase == Phase.GRADIENT)
+                computeGradients();
+            else
+                update();
+        }
+
+        private void computeGradients() {
+            NetworkTrainer trainer = NetworkTrainer.this;
+            FeedForwardNetwork network = trainer.network;
+            int workerCount = trainer.workers.length;
+            int from = trainer.batchCount * this.index / workerCount;
+            int count = trainer.batchCount * (this.index + 1) / workerCount - from;
+            int layers = network.weights.length;
+            float[][] activations = this.workspace.activations;
+            int inputSize = network.getInputSize();
+            int outputSize = network.getOutputSize();
+
+            for (int l = 0; l < layers; l++) {
+                Arrays.fill(this.gradients[l], 0.0f);
+                Arrays.fill(this.biasGradients[l], 0.0f);
+            }
+            this.error = 0.0;
+
+            if (count == 0)
+                return;
+
+            System.arraycopy(trainer.inputs, (trainer.batchStart + from) * inputSize, activations[0], 0, count * inputSize);
+
+            for (int l = 0; l < layers; l++)
+                FeedForwardNetwork.multiplyBatch(network.weights[l], network.biases[l], network.sizes[l], network.sizes[l + 1], activations[l], activations[l + 1], count, 0, network.sizes[l + 1], network.activation);
+
+            float[] output = activations[layers];
+            float[] outputDelta = this.deltas[layers];
+            int targetBase = (trainer.batchStart + from) * outputSize;
+
+            for (int i = 0; i < count * outputSize; i++) {
+                float difference = output[i] - trainer.targets[targetBase + i];
+
+                this.error += difference * difference;
+                outputDelta[i] = difference * network.activation.derivative(output[i]);
+            }
+
+            for (int l = layers - 1; l >= 0; l--) {
+                accumulateGradient(this.deltas[l + 1], activations[l], count, network.sizes[l + 1], network.sizes[l], this.gradients[l], this.biasGradients[l]);
+
+                if (l > 0)
+                    backpropagate(network.weights[l], this.deltas[l + 1], activations[l], count, network.sizes[l + 1], network.sizes[l], this.deltas[l], network.activation);
+            }
+        }
+
+        /**
+         * Applies the summed gradients to this worker's share of every layer's weights and
+         * biases.
+         */
+        private void update() {
+            NetworkTrainer trainer = NetworkTrainer.this;
+            FeedForwardNetwork network = trainer.network;
+            Worker[] workers = trainer.workers;
+            float step = trainer.step;
+
+            for (int l = 0; l < network.weights.length; l++) {
+                float[] weights = network.weights[l];
+                float[] biases = network.biases[l];
+                int from = (int) ((long) weights.length * this.index / workers.length);
+                int to = (int) ((long) weights.length * (this.index + 1) / workers.length);
+
+                for (int i = from; i < to; i++) {
+                    float sum = 0.0f;
+                    for (Worker worker : workers)
+                        sum += worker.gradients[l][i];
+
+                    weights[i] -= step * sum;
+                }
+
+                from = biases.length * this.index / workers.length;
+                to = biases.length * (this.index + 1) / workers.length;
+
+                for (int i = from; i < to; i++) {
+                    float sum = 0.0f;
+                    for (Worker worker : workers)
+                        sum += worker.biasGradients[l][i];
+
+                    biases[i] -= step * sum;
+                }
+            }
+        }
+    }
+    //endregion
+}
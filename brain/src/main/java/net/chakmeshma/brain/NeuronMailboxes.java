@@ -0,0 +1,57 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One lightweight mailbox per neuron actor: incoming currents are summed into a single atomic
+ * float slot and the owning thread is unparked, so posting never allocates or takes a lock and a
+ * mailbox costs four bytes plus the owner reference.
+ */
+final class NeuronMailboxes {
+    private static final int EMPTY = Float.floatToRawIntBits(0.0f);
+    private final AtomicIntegerArray pending;
+    private final Thread[] owners;
+
+    NeuronMailboxes(int count) {
+        this.pending = new AtomicIntegerArray(count);
+        this.owners = new Thread[count];
+    }
+
+    void setOwner(int neuron, Thread owner) {
+        this.owners[neuron] = owner;
+    }
+
+    void post(int neuron, float current) {
+        while (true) {
+            int bits = this.pending.get(neuron);
+            int sum = Float.floatToRawIntBits(Float.intBitsToFloat(bits) + current);
+
+            if (this.pending.compareAndSet(neuron, bits, sum))
+                break;
+        }
+
+        Thread owner = this.owners[neuron];
+        if (owner != null)
+            LockSupport.unpark(owner);
+    }
+
+    /**
+     * Removes and returns the current accumulated in the mailbox of {@code neuron}, parking the
+     * calling owner thread until something arrives. Returns {@code 0} with nothing taken once the
+     * owner has been interrupted, which the owner tells apart by its interrupt flag: any float,
+     * {@link Float#NaN} included, can be a posted current.
+     */
+    float take(int neuron) {
+        while (true) {
+            int bits = this.pending.getAndSet(neuron, EMPTY);
+
+            if (bits != EMPTY)
+                return Float.intBitsToFloat(bits);
+            if (Thread.currentThread().isInterrupted())
+                return 0.0f;
+
+            LockSupport.park(this);
+        }
+    }
+}
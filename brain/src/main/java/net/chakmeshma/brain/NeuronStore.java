@@ -0,0 +1,179 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Structure-of-arrays neuron state: every neuron attribute is a primitive column indexed by
+ * neuron id, so a tick is a sequential sweep over a handful of arrays.
+ * <p>
+ * The threshold and location columns are only read by ticks, so a {@link #fork()} shares them
+ * with its origin; whichever store writes to a shared column first replaces it with a private
+ * copy. Writers go through {@link #writableThreshold()} and {@link #ownLocations()}.
+ */
+final class NeuronStore {
+    static final float DEFAULT_DECAY = 0.9f;
+    static final float DEFAULT_RESET_POTENTIAL = 0.0f;
+    static final int DEFAULT_REFRACTORY_PERIOD = 2;
+
+    final int count;
+    // replaced by a private copy on the first write while shared with a fork
+    int[] threshold;
+    final float[] input;
+    // swapped for back buffers by the deterministic engine
+    float[] potential;
+    int[] refractory;
+    byte[] fired;
+    float[] locationX;
+    float[] locationY;
+    float[] locationZ;
+    float decay;
+    float resetPotential;
+    int refractoryPeriod;
+    private boolean sharedThreshold;
+    private boolean sharedLocations;
+
+    NeuronStore(int count) {
+        this.count = count;
+        this.threshold = new int[count];
+        this.potential = new float[count];
+        this.input = new float[count];
+        this.refractory = new int[count];
+        this.fired = new byte[count];
+        this.locationX = new float[count];
+        this.locationY = new float[count];
+        this.locationZ = new float[count];
+        this.decay = DEFAULT_DECAY;
+        this.resetPotential = DEFAULT_RESET_POTENTIAL;
+        this.refractoryPeriod = DEFAULT_REFRACTORY_PERIOD;
+    }
+
+    private NeuronStore(NeuronStore origin) {
+        this.count = origin.count;
+        this.threshold = origin.threshold;
+        this.potential = origin.potential.clone();
+        this.input = origin.input.clone();
+        this.refractory = origin.refractory.clone();
+        this.fired = origin.fired.clone();
+        this.locationX = origin.locationX;
+        this.locationY = origin.locationY;
+        this.locationZ = origin.locationZ;
+        this.decay = origin.decay;
+        this.resetPotential = origin.resetPotential;
+        this.refractoryPeriod = origin.refractoryPeriod;
+        this.sharedThreshold = true;
+        this.sharedLocations = true;
+    }
+
+    /**
+     * Returns a store starting out in this store's state. Columns every tick rewrites are
+     * copied; the threshold and location columns stay shared until either store writes to them.
+     */
+    NeuronStore fork() {
+        this.sharedThreshold = true;
+        this.sharedLocations = true;
+
+        return new NeuronStore(this);
+    }
+
+    /**
+     * Returns a store of {@code count} neurons holding this store's state, followed by inert
+     * neurons at rest whose threshold can never be reached.
+     */
+    NeuronStore grow(int count) {
+        NeuronStore grown = new NeuronStore(count);
+
+        System.arraycopy(this.threshold, 0, grown.threshold, 0, this.count);
+        System.arraycopy(this.potential, 0, grown.potential, 0, this.count);
+        System.arraycopy(this.input, 0, grown.input, 0, this.count);
+        System.arraycopy(this.refractory, 0, grown.refractory, 0, this.count);
+        System.arraycopy(this.fired, 0, grown.fired, 0, this.count);
+        System.arraycopy(this.locationX, 0, grown.locationX, 0, this.count);
+        System.arraycopy(this.locationY, 0, grown.locationY, 0, this.count);
+        System.arraycopy(this.locationZ, 0, grown.locationZ, 0, this.count);
+        Arrays.fill(grown.threshold, this.count, count, Integer.MAX_VALUE);
+        grown.decay = this.decay;
+        grown.resetPotential = this.resetPotential;
+        grown.refractoryPeriod = this.refractoryPeriod;
+
+        return grown;
+    }
+
+    /**
+     * The threshold column, copied first if it is shared with a fork.
+     */
+    int[] writableThreshold() {
+        if (this.sharedThreshold) {
+            this.threshold = this.threshold.clone();
+            this.sharedThreshold = false;
+        }
+
+        return this.threshold;
+    }
+
+    /**
+     * Copies the location columns if they are shared with a fork, so they can be written.
+     */
+    void ownLocations() {
+        if (!this.sharedLocations)
+            return;
+
+        this.locationX = this.locationX.clone();
+        this.locationY = this.locationY.clone();
+        this.locationZ = this.locationZ.clone();
+        this.sharedLocations = false;
+    }
+
+    static int bytesPerNeuron() {
+        // threshold, potential, input, refractory, fired, locationX/Y/Z
+        return 4 + 4 + 4 + 4 + 1 + 4 * 3;
+    }
+
+    long footprintBytes() {
+        return (long) bytesPerNeuron() * this.count;
+    }
+
+    /**
+     * Leaky integrate-and-fire update of neurons {@code [from, to)} with the selected
+     * {@link MembraneKernel}. Returns the number of neurons that fired.
+     */
+    int update(int from, int to) {
+        return MembraneKernels.SELECTED.update(this, from, to);
+    }
+
+    /**
+     * Moves the state of every neuron {@code i} to {@code newIds[i]}.
+     */
+    void permute(int[] newIds) {
+        ownLocations();
+
+        permute(writableThreshold(), newIds);
+        permute(this.potential, newIds);
+        permute(this.input, newIds);
+        permute(this.refractory, newIds);
+        permute(this.fired, newIds);
+        permute(this.locationX, newIds);
+        permute(this.locationY, newIds);
+        permute(this.locationZ, newIds);
+    }
+
+    private static void permute(int[] column, int[] newIds) {
+        int[] old = column.clone();
+
+        for (int i = 0; i < newIds.length; i++)
+            column[newIds[i]] = old[i];
+    }
+
+    private static void permute(float[] column, int[] newIds) {
+        float[] old = column.clone();
+
+        for (int i = 0; i < newIds.length; i++)
+            column[newIds[i]] = old[i];
+    }
+
+    private static void permute(byte[] column, int[] newIds) {
+        byte[] old = column.clone();
+
+        for (int i = 0; i < newIds.length; i++)
+            column[newIds[i]] = old[i];
+    }
+}
@@ -0,0 +1,11 @@
+package net.chakmeshma.brain;
+
+/**
+ * Creates the threads backing neuron actors. Implementations that need a newer JDK than the
+ * {@code brain} module targets live in their own source set and are looked up by name.
+ */
+interface NeuronThreadFactory {
+    String VIRTUAL_FACTORY_CLASS = "net.chakmeshma.brain.VirtualNeuronThreadFactory";
+
+    Thread newThread(Runnable actor, String threadName);
+}
@@ -0,0 +1,96 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer single-consumer queue of spike deliveries for one worker partition.
+ * <p>
+ * Array backed, with a per-slot sequence number telling producers and the consumer whose turn a
+ * slot is (Vyukov's bounded queue): producers race for a position with one CAS, the consumer
+ * never contends, and no message is ever allocated.
+ */
+final class PartitionMailbox {
+    private final int mask;
+    private final int[] targets;
+    private final float[] weights;
+    private final byte[] delays;
+    private final AtomicLongArray sequence;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    PartitionMailbox(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two of at least 2");
+
+        this.mask = capacity - 1;
+        this.targets = new int[capacity];
+        this.weights = new float[capacity];
+        this.delays = new byte[capacity];
+        this.sequence = new AtomicLongArray(capacity);
+
+        for (int i = 0; i < capacity; i++)
+            this.sequence.set(i, i);
+    }
+
+    /**
+     * Returns {@code false} when the mailbox is full.
+     */
+    boolean offer(int target, float weight, int delay) {
+        long position = this.tail.get();
+
+        while (true) {
+            int slot = (int) (position & this.mask);
+            long difference = this.sequence.get(slot) - position;
+
+            if (difference == 0) {
+                if (this.tail.compareAndSet(position, position + 1)) {
+                    this.targets[slot] = target;
+                    this.weights[slot] = weight;
+                    this.delays[slot] = (byte) delay;
+                    this.sequence.lazySet(slot, position + 1);
+
+                    return true;
+                }
+
+                position = this.tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = this.tail.get();
+            }
+        }
+    }
+
+    /**
+     * Adds every queued one-tick delivery to {@code input}, moves longer delayed ones sent at
+     * {@code tick} into {@code delayed}, and returns how many there were. Only the partition's
+     * owner may call this.
+     */
+    int drainInto(float[] input, DelayRing delayed, long tick) {
+        long head = this.head;
+        int drained = 0;
+
+        while (true) {
+            int slot = (int) (head & this.mask);
+
+            if (this.sequence.get(slot) != head + 1)
+                break;
+
+            int delay = this.delays[slot] & 0xFF;
+
+            if (delay == SynapseGraph.DEFAULT_DELAY)
+                input[this.targets[slot]] += this.weights[slot];
+            else
+                delayed.schedule(tick + delay, this.targets[slot], this.weights[slot]);
+
+            this.sequence.lazySet(slot, head + this.mask + 1);
+            head++;
+            drained++;
+        }
+
+        this.head = head;
+
+        return drained;
+    }
+}
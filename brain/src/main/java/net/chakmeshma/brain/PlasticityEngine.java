@@ -0,0 +1,230 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Lazily applied spike-timing-dependent plasticity on the weights of a {@link SynapseGraph}.
+ * <p>
+ * Only the last spike tick of every neuron is recorded. Nothing is done when a neuron fires as a
+ * target; instead, each time a source fires its outgoing synapses are traversed once and brought
+ * up to date: potentiation for a target spike that followed the source's previous spike, then
+ * depression for the pairing of the new source spike with the target's last spike. Synapses whose
+ * source stays silent are caught up by a consolidation sweep every
+ * {@code consolidationInterval} ticks, whose tick bounds what the next traversal still has to
+ * apply, so no pairing is counted twice. Weight changes cost one pass per source spike over a
+ * fan-out the spike is routed over anyway, and exponentials come from precomputed curves.
+ * <p>
+ * Updates of a tick are applied after its spikes have been routed, in two passes: every source
+ * that fired is traversed first, with all spike records still from earlier ticks, and only then
+ * are the new spikes recorded. Simultaneous source and target spikes do not pair.
+ */
+final class PlasticityEngine implements TickScheduler.TickTask {
+    static final long NEVER = Long.MIN_VALUE / 2;
+    private static final float CURVE_CUTOFF = 1.0e-4f;
+    private final NeuronStore store;
+    private final StdpRule rule;
+    private final int consolidationInterval;
+    private final long[] lastSpike;
+    private final float[] potentiationCurve;
+    private final float[] depressionCurve;
+    private volatile SynapseGraph synapses;
+    private ActivityFrontier frontier;
+    private long lastConsolidation;
+    private Phase phase;
+
+    PlasticityEngine(NeuronStore store, SynapseGraph synapses, StdpRule rule, int consolidationInterval, long tick) {
+        if (consolidationInterval < 1)
+            throw new IllegalArgumentException("consolidation interval must be positive");
+
+        this.store = store;
+        this.rule = rule;
+        this.consolidationInterval = consolidationInterval;
+        this.lastSpike = new long[store.count];
+        this.potentiationCurve = curve(rule.potentiation, rule.potentiationTau);
+        this.depressionCurve = curve(rule.depression, rule.depressionTau);
+        this.lastConsolidation = tick - 1;
+
+        Arrays.fill(this.lastSpike, NEVER);
+
+        setSynapses(synapses);
+    }
+
+    /**
+     * Tabulates {@code amplitude * exp(-dt / tau)} for {@code dt} from 0 until the term drops
+     * below {@link #CURVE_CUTOFF} of the amplitude.
+     */
+    private static float[] curve(float amplitude, float tau) {
+        int length = (int) Math.ceil(-Math.log(CURVE_CUTOFF) * tau) + 1;
+        float[] curve = new float[length];
+
+        for (int dt = 0; dt < length; dt++)
+            curve[dt] = (float) (amplitude * Math.exp(-dt / (double) tau));
+
+        return curve;
+    }
+
+    void setSynapses(SynapseGraph synapses) {
+        if (synapses.encoding != Brain.WeightEncoding.FLOAT32)
+            throw new IllegalArgumentException("plasticity needs " + Brain.WeightEncoding.FLOAT32 + " weights, not " + synapses.encoding);
+
+        this.synapses = synapses;
+    }
+
+    StdpRule getRule() {
+        return this.rule;
+    }
+
+    long getLastSpike(int neuron) {
+        return this.lastSpike[neuron];
+    }
+
+    /**
+     * Applies the plasticity of {@code tick} for a {@link SpikeRouter} tick, whose frontier holds
+     * every neuron that fired, on the scheduler's workers.
+     */
+    void afterTick(long tick, TickScheduler scheduler, ActivityFrontier frontier) {
+        this.frontier = frontier;
+
+        this.phase = Phase.TRAVERSE;
+        scheduler.runTick(this, this.store.count, tick);
+        this.phase = Phase.RECORD;
+        scheduler.runTick(this, this.store.count, tick);
+
+        if (tick - this.lastConsolidation >= this.consolidationInterval) {
+            this.phase = Phase.CONSOLIDATE;
+            scheduler.runTick(this, this.store.count, tick);
+            this.lastConsolidation = tick;
+        }
+
+        this.phase = null;
+        this.frontier = null;
+    }
+
+    /**
+     * Applies the plasticity of {@code tick} for an {@link EventDrivenEngine} tick on the calling
+     * thread.
+     */
+    void afterTick(long tick, EventDrivenEngine engine) {
+        int fired = engine.getFiredCount();
+
+        for (int i = 0; i < fired; i++)
+            traverse(engine.getFired(i), tick);
+        for (int i = 0; i < fired; i++)
+            this.lastSpike[engine.getFired(i)] = tick;
+
+        if (tick - this.lastConsolidation >= this.consolidationInterval)
+            consolidate(tick);
+    }
+
+    /**
+     * Applies every pending potentiation up to {@code tick}, the last completed tick, so that the
+     * weights can be read or saved as they stand.
+     */
+    void consolidate(long tick) {
+        if (tick <= this.lastConsolidation)
+            return;
+
+        consolidate(0, this.store.count);
+        this.lastConsolidation = tick;
+    }
+
+    @Override
+    public void process(int partition, int from, int to, long tick) {
+        if (this.phase == Phase.CONSOLIDATE) {
+            consolidate(from, to);
+            return;
+        }
+
+        final byte[] fired = this.store.fired;
+        final ActivityFrontier frontier = this.frontier;
+
+        if (from >= to)
+            return;
+
+        for (int w = from >>> 6, last = (to - 1) >>> 6; w <= last; w++) {
+            long bits = frontier.currentBits(w, from, to);
+
+            while (bits != 0) {
+                int neuron = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                if (fired[neuron] == 0)
+                    continue;
+
+                if (this.phase == Phase.TRAVERSE)
+                    traverse(neuron, tick);
+                else
+                    this.lastSpike[neuron] = tick;
+            }
+        }
+    }
+
+    /**
+     * Brings the outgoing synapses of {@code source}, which fired at {@code tick}, up to date.
+     */
+    private void traverse(int source, long tick) {
+        final SynapseGraph synapses = this.synapses;
+        final int[] targets = synapses.targets;
+        final float[] weights = synapses.weights;
+        final long[] lastSpike = this.lastSpike;
+        final float[] potentiation = this.potentiationCurve;
+        final float[] depression = this.depressionCurve;
+        final float minWeight = this.rule.minWeight;
+        final float maxWeight = this.rule.maxWeight;
+        final long pre = lastSpike[source];
+        final long bound = Math.max(pre, this.lastConsolidation);
+
+        for (int i = synapses.offsets[source], end = synapses.offsets[source + 1]; i < end; i++) {
+            long post = lastSpike[targets[i]];
+
+            if (post == NEVER)
+                continue;
+
+            float weight = weights[i];
+
+            // target spike after the previous source spike, not yet consolidated
+            if (pre != NEVER && post > bound && post - pre < potentiation.length)
+                weight += potentiation[(int) (post - pre)];
+            // target spike before this source spike
+            if (tick - post < depression.length)
+                weight -= depression[(int) (tick - post)];
+
+            weights[i] = Math.min(Math.max(weight, minWeight), maxWeight);
+        }
+    }
+
+    private void consolidate(int from, int to) {
+        final SynapseGraph synapses = this.synapses;
+        final int[] offsets = synapses.offsets;
+        final int[] targets = synapses.targets;
+        final float[] weights = synapses.weights;
+        final long[] lastSpike = this.lastSpike;
+        final float[] potentiation = this.potentiationCurve;
+        final float minWeight = this.rule.minWeight;
+        final float maxWeight = this.rule.maxWeight;
+
+        for (int source = from; source < to; source++) {
+            long pre = lastSpike[source];
+
+            if (pre == NEVER)
+                continue;
+
+            long bound = Math.max(pre, this.lastConsolidation);
+
+            for (int i = offsets[source], end = offsets[source + 1]; i < end; i++) {
+                long post = lastSpike[targets[i]];
+
+                if (post > bound && post - pre < potentiation.length)
+                    weights[i] = Math.min(Math.max(weights[i] + potentiation[(int) (post - pre)], minWeight), maxWeight);
+            }
+        }
+    }
+
+    //region inner classes
+    private enum Phase {
+        TRAVERSE,
+        RECORD,
+        CONSOLIDATE
+    }
+    //endregion
+}
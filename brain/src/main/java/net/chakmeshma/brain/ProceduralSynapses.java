@@ -0,0 +1,150 @@
+package net.chakmeshma.brain;
+
+/**
+ * Distance-based connectivity that is never stored: the outgoing synapses of a neuron are
+ * regenerated from {@code (seed, source)} every time they are needed.
+ * <p>
+ * Neuron {@code s} connects to every other neuron {@code t} within {@code radius} of it for
+ * which a hash of {@code (seed, s, t)} falls below {@code probability}. Because the decision for
+ * a pair does not depend on any other pair or on the order candidates are met in, a fan-out can be
+ * produced alone, at any time and on any thread, and {@link #materialize()} yields exactly the
+ * graph that is simulated procedurally. Candidates are found through a {@link SpatialIndex}, so
+ * the memory cost is the index's few bytes per neuron instead of eight bytes per synapse.
+ */
+final class ProceduralSynapses {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private final NeuronStore store;
+    private final SpatialIndex index;
+    private final float radius;
+    private final float probability;
+    private final float weight;
+    private final long seed;
+    // 24-bit fixed point probability compared against the hash
+    private final int threshold;
+
+    ProceduralSynapses(NeuronStore store, float radius, float probability, float weight, long seed) {
+        if (!(radius > 0.0f))
+            throw new IllegalArgumentException("radius must be positive");
+        if (probability < 0.0f || probability > 1.0f)
+            throw new IllegalArgumentException("probability must be within [0, 1]");
+
+        this.store = store;
+        this.index = new SpatialIndex(store, radius);
+        this.radius = radius;
+        this.probability = probability;
+        this.weight = weight;
+        this.seed = seed;
+        this.threshold = (int) Math.min(probability * (1 << 24), 1 << 24);
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Whether {@code source} connects to {@code target}, given they are within the radius.
+     */
+    boolean connects(int source, int target) {
+        long hash = mix(mix(this.seed + GOLDEN_GAMMA * (source + 1L)) + GOLDEN_GAMMA * (target + 1L));
+
+        return (int) (hash >>> 40) < this.threshold;
+    }
+
+    float getRadius() {
+        return this.radius;
+    }
+
+    float getProbability() {
+        return this.probability;
+    }
+
+    float getWeight() {
+        return this.weight;
+    }
+
+    long getSeed() {
+        return this.seed;
+    }
+
+    long footprintBytes() {
+        return this.index.footprintBytes();
+    }
+
+    /**
+     * Returns a generator for use by a single thread.
+     */
+    Generator newGenerator() {
+        return new Generator();
+    }
+
+    /**
+     * Stores the generated synapses as a graph, fan-outs in the order they are generated in.
+     */
+    SynapseGraph materialize() {
+        final SynapseGraph.Builder builder = new SynapseGraph.Builder(this.store.count);
+        Generator generator = newGenerator();
+        final int[] source = new int[1];
+        SynapseVisitor visitor = new SynapseVisitor() {
+            @Override
+            public void visit(int target, float weight) {
+                builder.add(source[0], target, weight);
+            }
+        };
+
+        for (int i = 0; i < this.store.count; i++) {
+            source[0] = i;
+            generator.generate(i, visitor);
+        }
+
+        return builder.build();
+    }
+
+    //region inner classes
+    interface SynapseVisitor {
+        void visit(int target, float weight);
+    }
+
+    /**
+     * Reusable, allocation-free fan-out generator bound to one thread.
+     */
+    final class Generator implements SpatialIndex.Visitor {
+        private int source;
+        private SynapseVisitor sink;
+        private int generated;
+
+        ProceduralSynapses getSynapses() {
+            return ProceduralSynapses.this;
+        }
+
+        /**
+         * Hands every outgoing synapse of {@code source} to {@code sink} and returns how many
+         * there were.
+         */
+        int generate(int source, SynapseVisitor sink) {
+            NeuronStore store = ProceduralSynapses.this.store;
+
+            this.source = source;
+            this.sink = sink;
+            this.generated = 0;
+
+            ProceduralSynapses.this.index.query(store.locationX[source], store.locationY[source], store.locationZ[source], ProceduralSynapses.this.radius, this);
+
+            this.sink = null;
+
+            return this.generated;
+        }
+
+        @Override
+        public void visit(int neuron, float distanceSquared) {
+            if (neuron == this.source || !connects(this.source, neuron))
+                return;
+
+            this.sink.visit(neuron, ProceduralSynapses.this.weight);
+            this.generated++;
+        }
+    }
+    //endregion
+}
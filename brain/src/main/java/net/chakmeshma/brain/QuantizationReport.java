@@ -0,0 +1,99 @@
+package net.chakmeshma.brain;
+
+/**
+ * Accuracy of a synapse graph re-encoded from 32-bit float weights: per-weight error statistics
+ * and the worst error on a neuron's total input, reached when all of its sources fire together.
+ */
+final class QuantizationReport {
+    private final Brain.WeightEncoding encoding;
+    private final int synapseCount;
+    private final long originalBytes;
+    private final long encodedBytes;
+    private final float maxError;
+    private final double meanError;
+    private final double rmsError;
+    private final double maxInputError;
+
+    private QuantizationReport(Brain.WeightEncoding encoding, int synapseCount, long originalBytes, long encodedBytes, float maxError, double meanError, double rmsError, double maxInputError) {
+        this.encoding = encoding;
+        this.synapseCount = synapseCount;
+        this.originalBytes = originalBytes;
+        this.encodedBytes = encodedBytes;
+        this.maxError = maxError;
+        this.meanError = meanError;
+        this.rmsError = rmsError;
+        this.maxInputError = maxInputError;
+    }
+
+    /**
+     * Compares every weight of {@code encoded} with the same synapse of {@code original}; both
+     * graphs must share their topology.
+     */
+    static QuantizationReport compare(SynapseGraph original, SynapseGraph encoded) {
+        if (original.offsets != encoded.offsets)
+            throw new IllegalArgumentException("graphs do not share their topology");
+
+        float[] reference = original.floatWeights();
+        double[] inputError = new double[original.neuronCount];
+        float maxError = 0.0f;
+        double absoluteSum = 0.0, squaredSum = 0.0;
+
+        for (int row = 0; row < original.neuronCount; row++) {
+            for (int i = original.offsets[row], end = original.offsets[row + 1]; i < end; i++) {
+                float error = encoded.weight(row, i) - reference[i];
+
+                maxError = Math.max(maxError, Math.abs(error));
+                absoluteSum += Math.abs(error);
+                squaredSum += (double) error * error;
+                inputError[original.targets[i]] += error;
+            }
+        }
+
+        double maxInputError = 0.0;
+        for (double error : inputError)
+            maxInputError = Math.max(maxInputError, Math.abs(error));
+
+        int count = original.getSynapseCount();
+
+        return new QuantizationReport(encoded.encoding, count, original.footprintBytes(), encoded.footprintBytes(), maxError,
+                count == 0 ? 0.0 : absoluteSum / count, count == 0 ? 0.0 : Math.sqrt(squaredSum / count), maxInputError);
+    }
+
+    Brain.WeightEncoding getEncoding() {
+        return this.encoding;
+    }
+
+    int getSynapseCount() {
+        return this.synapseCount;
+    }
+
+    long getOriginalBytes() {
+        return this.originalBytes;
+    }
+
+    long getEncodedBytes() {
+        return this.encodedBytes;
+    }
+
+    float getMaxError() {
+        return this.maxError;
+    }
+
+    double getMeanError() {
+        return this.meanError;
+    }
+
+    double getRmsError() {
+        return this.rmsError;
+    }
+
+    double getMaxInputError() {
+        return this.maxInputError;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s weights for %d synapses: %d -> %d bytes, max error %g, mean error %g, rms error %g, worst input error %g",
+                this.encoding, this.synapseCount, this.originalBytes, this.encodedBytes, this.maxError, this.meanError, this.rmsError, this.maxInputError);
+    }
+}
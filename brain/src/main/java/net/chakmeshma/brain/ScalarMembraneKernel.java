@@ -0,0 +1,50 @@
+package net.chakmeshma.brain;
+
+/**
+ * Reference membrane kernel: one neuron at a time, plain Java arithmetic.
+ */
+final class ScalarMembraneKernel implements MembraneKernel {
+    static final ScalarMembraneKernel INSTANCE = new ScalarMembraneKernel();
+
+    private ScalarMembraneKernel() {
+    }
+
+    /**
+     * Decays the membrane potential, integrates the input accumulated since the last update and
+     * fires neurons that reach their threshold; refractory neurons are held at the reset
+     * potential and count down instead.
+     */
+    @Override
+    public int update(NeuronStore store, int from, int to) {
+        final int[] threshold = store.threshold;
+        final float[] potential = store.potential;
+        final float[] input = store.input;
+        final int[] refractory = store.refractory;
+        final byte[] fired = store.fired;
+        final float decay = store.decay;
+        final float resetPotential = store.resetPotential;
+        final int refractoryPeriod = store.refractoryPeriod;
+        int spikes = 0;
+
+        for (int i = from; i < to; i++) {
+            float v = potential[i] * decay + input[i];
+            input[i] = 0.0f;
+
+            if (refractory[i] > 0) {
+                refractory[i]--;
+                potential[i] = resetPotential;
+                fired[i] = 0;
+            } else if (v >= threshold[i]) {
+                potential[i] = resetPotential;
+                refractory[i] = refractoryPeriod;
+                fired[i] = 1;
+                spikes++;
+            } else {
+                potential[i] = v;
+                fired[i] = 0;
+            }
+        }
+
+        return spikes;
+    }
+}
@@ -0,0 +1,220 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over neuron locations with cells laid out in Morton (Z-order) order.
+ * <p>
+ * Neuron ids are sorted by the Morton key of their cell, so every occupied cell is one
+ * contiguous run of {@link #order} and spatially close cells are close in memory. A radius query
+ * visits only the cells overlapping the query sphere, which keeps it at roughly O(result) when
+ * the cell size is in the order of the query radius.
+ */
+final class SpatialIndex {
+    private static final int AXIS_BITS = 21;
+    private static final int AXIS_MAX = (1 << AXIS_BITS) - 1;
+    private final float[] locationX;
+    private final float[] locationY;
+    private final float[] locationZ;
+    private final float cellSize;
+    private final float originX, originY, originZ;
+    private final long[] cellKeys;
+    private final int[] cellStart;
+    private final int[] order;
+
+    SpatialIndex(NeuronStore store, float cellSize) {
+        this(store.locationX, store.locationY, store.locationZ, store.count, cellSize);
+    }
+
+    SpatialIndex(float[] locationX, float[] locationY, float[] locationZ, int count, float cellSize) {
+        if (!(cellSize > 0.0f))
+            throw new IllegalArgumentException("cell size must be positive");
+
+        this.locationX = locationX;
+        this.locationY = locationY;
+        this.locationZ = locationZ;
+        this.cellSize = cellSize;
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY, minZ = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, locationX[i]);
+            minY = Math.min(minY, locationY[i]);
+            minZ = Math.min(minZ, locationZ[i]);
+        }
+
+        this.originX = count == 0 ? 0.0f : minX;
+        this.originY = count == 0 ? 0.0f : minY;
+        this.originZ = count == 0 ? 0.0f : minZ;
+
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = morton(cell(locationX[i], this.originX), cell(locationY[i], this.originY), cell(locationZ[i], this.originZ));
+
+        this.order = sortByKey(keys);
+
+        int cells = 0;
+        for (int i = 0; i < count; i++)
+            if (i == 0 || keys[this.order[i]] != keys[this.order[i - 1]])
+                cells++;
+
+        this.cellKeys = new long[cells];
+        this.cellStart = new int[cells + 1];
+
+        int cell = -1;
+        for (int i = 0; i < count; i++) {
+            long key = keys[this.order[i]];
+
+            if (cell < 0 || this.cellKeys[cell] != key) {
+                cell++;
+                this.cellKeys[cell] = key;
+                this.cellStart[cell] = i;
+            }
+        }
+        this.cellStart[cells] = count;
+    }
+
+    static long morton(int x, int y, int z) {
+        return spread(x) | (spread(y) << 1) | (spread(z) << 2);
+    }
+
+    private static long spread(int value) {
+        long v = value & AXIS_MAX;
+
+        v = (v | (v << 32)) & 0x1F00000000FFFFL;
+        v = (v | (v << 16)) & 0x1F0000FF0000FFL;
+        v = (v | (v << 8)) & 0x100F00F00F00F00FL;
+        v = (v | (v << 4)) & 0x10C30C30C30C30C3L;
+        v = (v | (v << 2)) & 0x1249249249249249L;
+
+        return v;
+    }
+
+    /**
+     * Returns neuron ids ordered by key, ties kept in id order. Keys take up to 63 bits, so
+     * instead of packing (key, id) pairs the sorted keys are bucketed and ids counted into place.
+     */
+    private static int[] sortByKey(long[] keys) {
+        int count = keys.length;
+        long[] packed = Arrays.copyOf(keys, count);
+        int[] order = new int[count];
+
+        Arrays.sort(packed);
+
+        long[] distinct = new long[count];
+        int[] runStart = new int[count + 1];
+        int runs = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || packed[i] != packed[i - 1]) {
+                distinct[runs] = packed[i];
+                runStart[runs] = i;
+                runs++;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            int run = Arrays.binarySearch(distinct, 0, runs, keys[i]);
+            order[runStart[run]++] = i;
+        }
+
+        return order;
+    }
+
+    private int cell(float coordinate, float origin) {
+        int cell = (int) ((coordinate - origin) / this.cellSize);
+
+        return Math.max(0, Math.min(AXIS_MAX, cell));
+    }
+
+    float getCellSize() {
+        return this.cellSize;
+    }
+
+    int getCellCount() {
+        return this.cellKeys.length;
+    }
+
+    /**
+     * Bytes held by the index itself; the location columns belong to the neuron store.
+     */
+    long footprintBytes() {
+        return 8L * this.cellKeys.length + 4L * this.cellStart.length + 4L * this.order.length;
+    }
+
+    /**
+     * Neuron ids in Morton order of their cell; a spatially coherent numbering for the neurons.
+     */
+    int[] getOrder() {
+        return this.order;
+    }
+
+    /**
+     * Calls {@code visitor} for every neuron within {@code radius} of {@code (x, y, z)}.
+     */
+    void query(float x, float y, float z, float radius, Visitor visitor) {
+        float radiusSquared = radius * radius;
+        int minX = cellUnclamped(x - radius, this.originX), maxX = cellUnclamped(x + radius, this.originX);
+        int minY = cellUnclamped(y - radius, this.originY), maxY = cellUnclamped(y + radius, this.originY);
+        int minZ = cellUnclamped(z - radius, this.originZ), maxZ = cellUnclamped(z + radius, this.originZ);
+
+        if (maxX < 0 || maxY < 0 || maxZ < 0)
+            return;
+
+        minX = Math.max(minX, 0);
+        minY = Math.max(minY, 0);
+        minZ = Math.max(minZ, 0);
+        maxX = Math.min(maxX, AXIS_MAX);
+        maxY = Math.min(maxY, AXIS_MAX);
+        maxZ = Math.min(maxZ, AXIS_MAX);
+
+        for (int cz = minZ; cz <= maxZ; cz++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                for (int cx = minX; cx <= maxX; cx++) {
+                    int cell = Arrays.binarySearch(this.cellKeys, morton(cx, cy, cz));
+
+                    if (cell < 0)
+                        continue;
+
+                    for (int i = this.cellStart[cell], end = this.cellStart[cell + 1]; i < end; i++) {
+                        int neuron = this.order[i];
+                        float dx = this.locationX[neuron] - x;
+                        float dy = this.locationY[neuron] - y;
+                        float dz = this.locationZ[neuron] - z;
+                        float distanceSquared = dx * dx + dy * dy + dz * dz;
+
+                        if (distanceSquared <= radiusSquared)
+                            visitor.visit(neuron, distanceSquared);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the ids of neurons within {@code radius} of {@code (x, y, z)} into {@code out} and
+     * returns how many there are; ids beyond {@code out.length} are counted but not stored.
+     */
+    int collect(float x, float y, float z, float radius, final int[] out) {
+        final int[] found = new int[1];
+
+        query(x, y, z, radius, new Visitor() {
+            @Override
+            public void visit(int neuron, float distanceSquared) {
+                if (found[0] < out.length)
+                    out[found[0]] = neuron;
+                found[0]++;
+            }
+        });
+
+        return found[0];
+    }
+
+    private int cellUnclamped(float coordinate, float origin) {
+        return (int) Math.floor((coordinate - origin) / this.cellSize);
+    }
+
+    //region inner classes
+    interface Visitor {
+        void visit(int neuron, float distanceSquared);
+    }
+    //endregion
+}
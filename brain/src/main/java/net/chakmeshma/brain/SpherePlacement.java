@@ -0,0 +1,43 @@
+package net.chakmeshma.brain;
+
+import java.util.Random;
+
+/**
+ * Places neurons uniformly inside a sphere centred on the origin.
+ */
+final class SpherePlacement {
+    static final long DEFAULT_SEED = 0x5EEDL;
+
+    private SpherePlacement() {
+    }
+
+    /**
+     * Radius at which {@code count} neurons fill the sphere at unit density, i.e. with an average
+     * nearest-neighbour spacing of about one.
+     */
+    static float unitDensityRadius(int count) {
+        return (float) Math.cbrt(3.0 * count / (4.0 * Math.PI));
+    }
+
+    static void place(NeuronStore store, float radius, long seed) {
+        Random random = new Random(seed);
+
+        for (int i = 0; i < store.count; i++) {
+            // direction from a normalised gaussian, distance from the cube root of a uniform sample
+            double x, y, z, length;
+
+            do {
+                x = random.nextGaussian();
+                y = random.nextGaussian();
+                z = random.nextGaussian();
+                length = Math.sqrt(x * x + y * y + z * z);
+            } while (length == 0.0);
+
+            double distance = radius * Math.cbrt(random.nextDouble()) / length;
+
+            store.locationX[i] = (float) (x * distance);
+            store.locationY[i] = (float) (y * distance);
+            store.locationZ[i] = (float) (z * distance);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pooled tick task that updates a partition's neurons and routes their spikes to the partition
+ * owning each target.
+ * <p>
+ * Deliveries to a worker's own neurons go straight into the input column; all others go through
+ * the target partition's {@link PartitionMailbox}, which only its owner drains into its own slice
+ * of the input column, so no neuron state is ever written by two threads. A worker that finds a
+ * mailbox full drains its own mailbox while it retries, which keeps partitions sending to each
+ * other from deadlocking. Once every partition has routed its spikes, each owner drains whatever
+ * is left, and the tick ends with all deliveries in place for the next one.
+ * <p>
+ * Only neurons in the {@link ActivityFrontier} are updated: runs of consecutive frontier neurons
+ * go through the membrane kernel together, and neurons resting at their fixed point are skipped
+ * until a delivery wakes them up, so idle regions cost next to nothing.
+ * <p>
+ * Synapses delayed by more than one tick are delivered through the target partition's
+ * {@link DelayRing}: the owner files them under their due tick, and each tick starts by adding
+ * the ring's current slot to the input column.
+ * <p>
+ * With {@link ProceduralSynapses} set, fan-outs are regenerated per spike by a generator owned by
+ * each partition instead of being read from the graph. With a {@link SynapseOverflow} set, each
+ * fan-out continues with the source's overflow segment.
+ */
+final class SpikeRouter implements TickScheduler.TickTask {
+    static final int DEFAULT_MAILBOX_CAPACITY = 1 << 14;
+    private final NeuronStore store;
+    private final TickScheduler scheduler;
+    private final PartitionMailbox[] mailboxes;
+    private final DelayRing[] delayed;
+    private final PartitionRoute[] routes;
+    private final AtomicInteger routed = new AtomicInteger();
+    private final ActivityFrontier frontier;
+    private final int[] spikes;
+    private final int[] active;
+    private volatile SynapseGraph synapses;
+    private volatile ProceduralSynapses procedural;
+    private volatile SynapseOverflow overflow;
+
+    SpikeRouter(NeuronStore store, SynapseGraph synapses, TickScheduler scheduler) {
+        this(store, synapses, scheduler, DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    SpikeRouter(NeuronStore store, SynapseGraph synapses, TickScheduler scheduler, int mailboxCapacity) {
+        this.store = store;
+        this.synapses = synapses;
+        this.scheduler = scheduler;
+        this.mailboxes = new PartitionMailbox[scheduler.getPartitionCount()];
+        this.delayed = new DelayRing[scheduler.getPartitionCount()];
+        this.routes = new PartitionRoute[scheduler.getPartitionCount()];
+        this.frontier = new ActivityFrontier(store.count);
+        this.spikes = new int[scheduler.getPartitionCount()];
+        this.active = new int[scheduler.getPartitionCount()];
+
+        for (int i = 0; i < this.mailboxes.length; i++)
+            this.mailboxes[i] = new PartitionMailbox(mailboxCapacity);
+        for (int i = 0; i < this.delayed.length; i++)
+            this.delayed[i] = new DelayRing(synapses.maxDelay);
+        for (int i = 0; i < this.routes.length; i++)
+            this.routes[i] = new PartitionRoute(this.mailboxes[i]);
+    }
+
+    /**
+     * Replaces the synapse graph between ticks, resizing the delay rings if its delays are longer.
+     */
+    void setSynapses(SynapseGraph synapses) {
+        this.synapses = synapses;
+
+        ensureDelay(synapses.maxDelay);
+    }
+
+    /**
+     * Routes spikes over the overflow segments of {@code overflow} too, or over the graph alone
+     * when it is {@code null}. Must be set again between ticks once the overflow holds longer
+     * delays.
+     */
+    void setOverflow(SynapseOverflow overflow) {
+        this.overflow = overflow;
+
+        if (overflow != null)
+            ensureDelay(overflow.getMaxDelay());
+    }
+
+    private void ensureDelay(int maxDelay) {
+        for (int i = 0; i < this.delayed.length; i++) {
+            DelayRing old = this.delayed[i];
+
+            if (old.getSlotCount() > maxDelay)
+                continue;
+
+            final DelayRing ring = new DelayRing(maxDelay);
+            old.forEachPending(new TimingWheel.PendingVisitor() {
+                @Override
+                public void visit(long deliveryTick, int target, float weight) {
+                    ring.schedule(deliveryTick, target, weight);
+                }
+            });
+            this.delayed[i] = ring;
+        }
+    }
+
+    /**
+     * Visits the delayed deliveries that have not reached their target yet.
+     */
+    void forEachPending(TimingWheel.PendingVisitor visitor) {
+        for (DelayRing ring : this.delayed)
+            ring.forEachPending(visitor);
+    }
+
+    void clearPending() {
+        for (DelayRing ring : this.delayed)
+            ring.clear();
+    }
+
+    /**
+     * Routes spikes over procedurally generated synapses instead of the stored graph, or over the
+     * graph again when {@code procedural} is {@code null}.
+     */
+    void setProcedural(ProceduralSynapses procedural) {
+        this.procedural = procedural;
+    }
+
+    ActivityFrontier getFrontier() {
+        return this.frontier;
+    }
+
+    /**
+     * Number of neurons updated by the last tick.
+     */
+    int getActiveCount() {
+        int total = 0;
+        for (int active : this.active)
+            total += active;
+
+        return total;
+    }
+
+    /**
+     * Runs one tick on the scheduler and returns the number of neurons that fired.
+     */
+    int tick(long tick) {
+        this.routed.set(0);
+        this.scheduler.runTick(this, this.store.count, tick);
+        this.frontier.swap();
+
+        int total = 0;
+        for (int spikes : this.spikes)
+            total += spikes;
+
+        return total;
+    }
+
+    @Override
+    public void process(int partition, int from, int to, long tick) {
+        final NeuronStore store = this.store;
+        final byte[] fired = store.fired;
+        final float[] input = store.input;
+        final ActivityFrontier frontier = this.frontier;
+        final PartitionMailbox own = this.mailboxes[partition];
+        final DelayRing delayed = this.delayed[partition];
+        final PartitionRoute route = this.routes[partition];
+        final int partitions = this.mailboxes.length;
+
+        route.begin(from, to, tick, input, delayed);
+
+        try {
+            int spikes = 0;
+            int active = 0;
+
+            // deliveries whose delay ends this tick; their targets are all in this partition
+            delayed.drainInto(tick, input, frontier);
+
+            if (from < to) {
+                int firstWord = from >>> 6;
+                int lastWord = (to - 1) >>> 6;
+
+                // update runs of consecutive frontier neurons
+                for (int w = firstWord; w <= lastWord; w++) {
+                    long bits = frontier.currentBits(w, from, to);
+
+                    while (bits != 0) {
+                        int start = Long.numberOfTrailingZeros(bits);
+                        long run = bits | ((1L << start) - 1);
+                        int end = run == -1L ? 64 : Long.numberOfTrailingZeros(~run);
+
+                        spikes += store.update((w << 6) + start, (w << 6) + end);
+                        active += end - start;
+                        bits &= end == 64 ? 0L : -1L << end;
+                    }
+                }
+
+                // then route their spikes and carry the ones still off rest into the next tick
+                for (int w = firstWord; w <= lastWord; w++) {
+                    long bits = frontier.takeCurrentBits(w, from, to);
+
+                    while (bits != 0) {
+                        int source = (w << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+
+                        if (!ActivityFrontier.isResting(store, source))
+                            frontier.markNext(source);
+                        if (fired[source] != 0)
+                            route.spike(source);
+                    }
+                }
+            }
+
+            this.spikes[partition] = spikes;
+            this.active[partition] = active;
+        } finally {
+            this.routed.incrementAndGet();
+        }
+
+        while (this.routed.get() < partitions)
+            if (own.drainInto(input, delayed, tick) == 0)
+                Thread.yield();
+
+        own.drainInto(input, delayed, tick);
+    }
+
+    //region inner classes
+    /**
+     * Delivery side of one partition's tick: sends a fired neuron's spikes to their targets, from
+     * the stored graph or regenerated by {@link ProceduralSynapses}.
+     */
+    private final class PartitionRoute implements ProceduralSynapses.SynapseVisitor {
+        private final PartitionMailbox own;
+        private ProceduralSynapses.Generator generator;
+        private DelayRing delayed;
+        private float[] input;
+        private int from;
+        private int to;
+        private long tick;
+
+        PartitionRoute(PartitionMailbox own) {
+            this.own = own;
+        }
+
+        void begin(int from, int to, long tick, float[] input, DelayRing delayed) {
+            this.from = from;
+            this.to = to;
+            this.tick = tick;
+            this.input = input;
+            this.delayed = delayed;
+        }
+
+        void spike(int source) {
+            ProceduralSynapses procedural = SpikeRouter.this.procedural;
+
+            if (procedural != null) {
+                if (this.generator == null || this.generator.getSynapses() != procedural)
+                    this.generator = procedural.newGenerator();
+
+                this.generator.generate(source, this);
+                return;
+            }
+
+            final SynapseGraph synapses = SpikeRouter.this.synapses;
+            final int[] targets = synapses.targets;
+            final byte[] delays = synapses.delays;
+            final int begin = synapses.offsets[source];
+            final int end = synapses.offsets[source + 1];
+
+            // one loop per weight encoding keeps the decode out of the per-synapse branches
+            switch (synapses.encoding) {
+                case FLOAT16: {
+                    final short[] weights = synapses.halfWeights;
+
+                    for (int i = begin; i < end; i++)
+                        deliver(targets[i], HalfFloat.toFloat(weights[i]), delays == null ? SynapseGraph.DEFAULT_DELAY : delays[i] & 0xFF);
+                    break;
+                }
+                case INT8: {
+                    final byte[] weights = synapses.byteWeights;
+                    final float scale = synapses.rowScales[source];
+
+                    for (int i = begin; i < end; i++)
+                        deliver(targets[i], weights[i] * scale, delays == null ? SynapseGraph.DEFAULT_DELAY : delays[i] & 0xFF);
+                    break;
+                }
+                default: {
+                    final float[] weights = synapses.weights;
+
+                    for (int i = begin; i < end; i++)
+                        deliver(targets[i], weights[i], delays == null ? SynapseGraph.DEFAULT_DELAY : delays[i] & 0xFF);
+                    break;
+                }
+            }
+
+            SynapseOverflow overflow = SpikeRouter.this.overflow;
+
+            if (overflow != null && overflow.count(source) != 0) {
+                final int[] addedTargets = overflow.targets(source);
+                final float[] addedWeights = overflow.weights(source);
+                final byte[] addedDelays = overflow.delays(source);
+
+                for (int k = 0, count = overflow.count(source); k < count; k++)
+                    deliver(addedTargets[k], addedWeights[k], addedDelays[k] & 0xFF);
+            }
+        }
+
+        @Override
+        public void visit(int target, float weight) {
+            deliver(target, weight, SynapseGraph.DEFAULT_DELAY);
+        }
+
+        private void deliver(int target, float weight, int delay) {
+            if (target >= this.from && target < this.to) {
+                if (delay == SynapseGraph.DEFAULT_DELAY) {
+                    this.input[target] += weight;
+                    SpikeRouter.this.frontier.markNext(target);
+                } else {
+                    this.delayed.schedule(this.tick + delay, target, weight);
+                }
+                return;
+            }
+
+            // delayed targets are woken when their ring slot comes due
+            if (delay == SynapseGraph.DEFAULT_DELAY)
+                SpikeRouter.this.frontier.markNext(target);
+
+            PartitionMailbox[] mailboxes = SpikeRouter.this.mailboxes;
+            PartitionMailbox mailbox = mailboxes[SpikeRouter.this.scheduler.partitionOf(target, SpikeRouter.this.store.count)];
+
+            while (!mailbox.offer(target, weight, delay))
+                if (this.own.drainInto(this.input, this.delayed, this.tick) == 0)
+                    Thread.yield();
+        }
+    }
+    //endregion
+}
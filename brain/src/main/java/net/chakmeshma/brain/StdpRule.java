@@ -0,0 +1,56 @@
+package net.chakmeshma.brain;
+
+/**
+ * Parameters of additive pair-based spike-timing-dependent plasticity: a synapse whose source
+ * fires {@code dt} ticks before its target is strengthened by
+ * {@code potentiation * exp(-dt / potentiationTau)}, one whose source fires {@code dt} ticks after
+ * its target is weakened by {@code depression * exp(-dt / depressionTau)}, and weights are kept
+ * within {@code [minWeight, maxWeight]}.
+ */
+public final class StdpRule {
+    public static final StdpRule DEFAULT = new StdpRule(0.01f, 0.012f, 20.0f, 20.0f, 0.0f, 1.0f);
+    final float potentiation;
+    final float depression;
+    final float potentiationTau;
+    final float depressionTau;
+    final float minWeight;
+    final float maxWeight;
+
+    public StdpRule(float potentiation, float depression, float potentiationTau, float depressionTau, float minWeight, float maxWeight) {
+        if (potentiationTau <= 0.0f || depressionTau <= 0.0f)
+            throw new IllegalArgumentException("time constants must be positive");
+        if (minWeight > maxWeight)
+            throw new IllegalArgumentException("minimum weight exceeds maximum weight");
+
+        this.potentiation = potentiation;
+        this.depression = depression;
+        this.potentiationTau = potentiationTau;
+        this.depressionTau = depressionTau;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+    }
+
+    public float getPotentiation() {
+        return this.potentiation;
+    }
+
+    public float getDepression() {
+        return this.depression;
+    }
+
+    public float getPotentiationTau() {
+        return this.potentiationTau;
+    }
+
+    public float getDepressionTau() {
+        return this.depressionTau;
+    }
+
+    public float getMinWeight() {
+        return this.minWeight;
+    }
+
+    public float getMaxWeight() {
+        return this.maxWeight;
+    }
+}
@@ -0,0 +1,99 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring buffer of external stimuli, written in batches by any number of producer
+ * threads and drained by the simulation thread once per tick.
+ * <p>
+ * A producer claims room for its whole batch with one CAS on {@code tail}, copies the batch into
+ * the ring columns and then publishes it by moving {@code published} past it, in claim order.
+ * There is no lock, no notification and no allocation per stimulus or per batch.
+ */
+final class StimulusBuffer {
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    private final int mask;
+    private final int[] neurons;
+    private final float[] currents;
+    private final long[] ticks;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private volatile long head;
+
+    StimulusBuffer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("capacity must be a power of two");
+
+        this.mask = capacity - 1;
+        this.neurons = new int[capacity];
+        this.currents = new float[capacity];
+        this.ticks = new long[capacity];
+    }
+
+    int getCapacity() {
+        return this.mask + 1;
+    }
+
+    int size() {
+        return (int) (this.published.get() - this.head);
+    }
+
+    /**
+     * Enqueues {@code count} stimuli starting at {@code offset}, all due at {@code tick}. Returns
+     * {@code false}, enqueueing nothing, when the ring has no room for the whole batch.
+     */
+    boolean offer(int[] neurons, float[] currents, int offset, int count, long tick) {
+        if (count > this.mask + 1)
+            throw new IllegalArgumentException(String.format("batch of %d stimuli exceeds the buffer capacity %d", count, this.mask + 1));
+        if (count == 0)
+            return true;
+
+        long start;
+        do {
+            start = this.tail.get();
+
+            if (start + count - this.head > this.mask + 1)
+                return false;
+        } while (!this.tail.compareAndSet(start, start + count));
+
+        for (int i = 0; i < count; i++) {
+            int slot = (int) ((start + i) & this.mask);
+
+            this.neurons[slot] = neurons[offset + i];
+            this.currents[slot] = currents[offset + i];
+            this.ticks[slot] = tick;
+        }
+
+        // batches become visible strictly in claim order
+        while (this.published.get() != start)
+            Thread.yield();
+
+        this.published.set(start + count);
+
+        return true;
+    }
+
+    /**
+     * Hands every published stimulus to {@code sink} and frees its slot. Must only be called from
+     * the single consuming thread. If {@code sink} throws, the stimulus it was handed is dropped
+     * with those before it, and the rest stay queued for the next drain.
+     */
+    int drain(TimingWheel.PendingVisitor sink) {
+        long head = this.head;
+        long end = this.published.get();
+        long i = head;
+
+        try {
+            for (; i < end; i++) {
+                int slot = (int) (i & this.mask);
+
+                sink.visit(this.ticks[slot], this.neurons[slot], this.currents[slot]);
+            }
+        } finally {
+            // frees everything handed out, the stimulus that failed included
+            this.head = Math.min(i + 1, end);
+        }
+
+        return (int) (end - head);
+    }
+}
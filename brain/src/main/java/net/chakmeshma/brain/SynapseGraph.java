@@ -0,0 +1,456 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compressed sparse row (CSR) synapse graph, immutable but for its weights, which a
+ * {@link PlasticityEngine} adjusts in place. The outgoing synapses of neuron
+ * {@code s} occupy indices {@code [offsets[s], offsets[s + 1])} of the {@code targets} and
+ * {@code weights} columns, so walking a neuron's fan-out is a linear scan with no allocation.
+ * <p>
+ * Synaptic delays, in ticks from {@code 1} to {@link #MAX_DELAY}, are kept in an optional
+ * unsigned byte column; it is {@code null} when every synapse has the default delay of one tick.
+ * <p>
+ * Weights are stored in one of the {@link Brain.WeightEncoding}s, only the column of that
+ * encoding being non-null: 32-bit floats, 16-bit half floats, or 8-bit integers scaled by a
+ * per-row factor, a row being the outgoing synapses of one neuron. A transposed 8-bit graph keeps
+ * the bytes and the scales of the rows they were encoded in, so each of its synapses is scaled by
+ * the factor of the neuron it lists in {@code targets}, its source, and decodes to exactly the
+ * weight it had before. Readers that handle every encoding go through {@link #weight(int, int)}.
+ */
+final class SynapseGraph {
+    static final int DEFAULT_DELAY = 1;
+    static final int MAX_DELAY = 255;
+    final int neuronCount;
+    final int[] offsets;
+    final int[] targets;
+    final Brain.WeightEncoding encoding;
+    final float[] weights;
+    final short[] halfWeights;
+    final byte[] byteWeights;
+    final float[] rowScales;
+    // rowScales is indexed by the neuron in targets rather than by row, as in a transposed graph
+    final boolean scalesByTarget;
+    final byte[] delays;
+    final int maxDelay;
+
+    SynapseGraph(int neuronCount, int[] offsets, int[] targets, float[] weights) {
+        this(neuronCount, offsets, targets, weights, null);
+    }
+
+    SynapseGraph(int neuronCount, int[] offsets, int[] targets, float[] weights, byte[] delays) {
+        this(neuronCount, offsets, targets, Brain.WeightEncoding.FLOAT32, weights, null, null, null, false, delays);
+    }
+
+    private SynapseGraph(int neuronCount, int[] offsets, int[] targets, Brain.WeightEncoding encoding, float[] weights, short[] halfWeights, byte[] byteWeights, float[] rowScales, boolean scalesByTarget, byte[] delays) {
+        if (offsets.length != neuronCount + 1)
+            throw new IllegalArgumentException("offsets must hold neuronCount + 1 entries");
+        if (offsets[neuronCount] != targets.length || weightCount(encoding, weights, halfWeights, byteWeights) != targets.length)
+            throw new IllegalArgumentException("synapse columns are inconsistent with offsets");
+        if (delays != null && delays.length != targets.length)
+            throw new IllegalArgumentException("delay column is inconsistent with offsets");
+
+        int maxDelay = DEFAULT_DELAY;
+
+        if (delays != null) {
+            for (byte delay : delays) {
+                if (delay == 0)
+                    throw new IllegalArgumentException("synaptic delays must be at least one tick");
+
+                maxDelay = Math.max(maxDelay, delay & 0xFF);
+            }
+        }
+
+        this.neuronCount = neuronCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.encoding = encoding;
+        this.weights = weights;
+        this.halfWeights = halfWeights;
+        this.byteWeights = byteWeights;
+        this.rowScales = rowScales;
+        this.scalesByTarget = scalesByTarget;
+        // a column of default delays carries no information
+        this.delays = maxDelay == DEFAULT_DELAY ? null : delays;
+        this.maxDelay = maxDelay;
+    }
+
+    private static int weightCount(Brain.WeightEncoding encoding, float[] weights, short[] halfWeights, byte[] byteWeights) {
+        switch (encoding) {
+            case FLOAT16:
+                return halfWeights.length;
+            case INT8:
+                return byteWeights.length;
+            default:
+                return weights.length;
+        }
+    }
+
+    static SynapseGraph empty(int neuronCount) {
+        return new SynapseGraph(neuronCount, new int[neuronCount + 1], new int[0], new float[0]);
+    }
+
+    int getSynapseCount() {
+        return this.targets.length;
+    }
+
+    int begin(int source) {
+        return this.offsets[source];
+    }
+
+    int end(int source) {
+        return this.offsets[source + 1];
+    }
+
+    int fanOut(int source) {
+        return this.offsets[source + 1] - this.offsets[source];
+    }
+
+    /**
+     * Weight of synapse {@code synapse}, which lies in row {@code row}, whatever the encoding.
+     */
+    float weight(int row, int synapse) {
+        switch (this.encoding) {
+            case FLOAT16:
+                return HalfFloat.toFloat(this.halfWeights[synapse]);
+            case INT8:
+                return this.byteWeights[synapse] * this.rowScales[this.scalesByTarget ? this.targets[synapse] : row];
+            default:
+                return this.weights[synapse];
+        }
+    }
+
+    /**
+     * Every weight as a float, the stored column itself for {@link Brain.WeightEncoding#FLOAT32}.
+     */
+    float[] floatWeights() {
+        if (this.encoding == Brain.WeightEncoding.FLOAT32)
+            return this.weights;
+
+        float[] weights = new float[this.targets.length];
+
+        for (int row = 0; row < this.neuronCount; row++)
+            for (int i = this.offsets[row], end = this.offsets[row + 1]; i < end; i++)
+                weights[i] = weight(row, i);
+
+        return weights;
+    }
+
+    /**
+     * Returns the graph with its weights stored in {@code encoding}, sharing the topology
+     * columns. Half floats are rounded to nearest; 8-bit rows are scaled so that their largest
+     * magnitude maps to 127.
+     */
+    SynapseGraph encode(Brain.WeightEncoding encoding) {
+        if (encoding == this.encoding)
+            return this;
+
+        float[] weights = floatWeights();
+
+        switch (encoding) {
+            case FLOAT16: {
+                short[] halves = new short[weights.length];
+
+                for (int i = 0; i < weights.length; i++)
+                    halves[i] = HalfFloat.fromFloat(weights[i]);
+
+                return new SynapseGraph(this.neuronCount, this.offsets, this.targets, encoding, null, halves, null, null, false, this.delays);
+            }
+            case INT8: {
+                byte[] bytes = new byte[weights.length];
+                float[] scales = new float[this.neuronCount];
+
+                for (int row = 0; row < this.neuronCount; row++) {
+                    float largest = 0.0f;
+
+                    for (int i = this.offsets[row], end = this.offsets[row + 1]; i < end; i++)
+                        largest = Math.max(largest, Math.abs(weights[i]));
+
+                    if (largest == 0.0f)
+                        continue;
+
+                    scales[row] = largest / 127.0f;
+
+                    for (int i = this.offsets[row], end = this.offsets[row + 1]; i < end; i++)
+                        bytes[i] = (byte) Math.max(-127, Math.min(127, Math.round(weights[i] / scales[row])));
+                }
+
+                return new SynapseGraph(this.neuronCount, this.offsets, this.targets, encoding, null, null, bytes, scales, false, this.delays);
+            }
+            default:
+                return new SynapseGraph(this.neuronCount, this.offsets, this.targets, weights, this.delays);
+        }
+    }
+
+    /**
+     * Returns the graph with a private copy of its weights, sharing the topology columns; for
+     * adjusting weights in place without affecting other holders of this graph.
+     */
+    SynapseGraph copyWeights() {
+        return new SynapseGraph(this.neuronCount, this.offsets, this.targets, this.encoding,
+                this.weights == null ? null : this.weights.clone(),
+                this.halfWeights == null ? null : this.halfWeights.clone(),
+                this.byteWeights == null ? null : this.byteWeights.clone(),
+                this.rowScales == null ? null : this.rowScales.clone(), this.scalesByTarget, this.delays);
+    }
+
+    /**
+     * Returns the graph over {@code neuronCount} neurons, the neurons beyond this graph's having
+     * no outgoing synapses; every column but the offsets is shared.
+     */
+    SynapseGraph grow(int neuronCount) {
+        int[] offsets = Arrays.copyOf(this.offsets, neuronCount + 1);
+
+        Arrays.fill(offsets, this.neuronCount + 1, neuronCount + 1, this.targets.length);
+
+        return new SynapseGraph(neuronCount, offsets, this.targets, this.encoding, this.weights, this.halfWeights, this.byteWeights, this.rowScales, this.scalesByTarget, this.delays);
+    }
+
+    int delay(int synapse) {
+        return this.delays == null ? DEFAULT_DELAY : this.delays[synapse] & 0xFF;
+    }
+
+    boolean hasDelays() {
+        return this.delays != null;
+    }
+
+    /**
+     * Returns the graph with every synapse reversed. Incoming synapses of each neuron are listed
+     * in ascending order of their source. Weights keep their encoding and their stored values, so
+     * every synapse decodes to the same weight in both graphs.
+     */
+    SynapseGraph transpose() {
+        int[] offsets = new int[this.neuronCount + 1];
+
+        for (int target : this.targets)
+            offsets[target + 1]++;
+
+        for (int i = 0; i < this.neuronCount; i++)
+            offsets[i + 1] += offsets[i];
+
+        int[] cursor = Arrays.copyOf(offsets, this.neuronCount);
+        int[] sources = new int[this.targets.length];
+        float[] weights = this.weights == null ? null : new float[this.targets.length];
+        short[] halfWeights = this.halfWeights == null ? null : new short[this.targets.length];
+        byte[] byteWeights = this.byteWeights == null ? null : new byte[this.targets.length];
+        byte[] delays = this.delays == null ? null : new byte[this.targets.length];
+
+        for (int source = 0; source < this.neuronCount; source++) {
+            for (int i = this.offsets[source], end = this.offsets[source + 1]; i < end; i++) {
+                int slot = cursor[this.targets[i]]++;
+
+                sources[slot] = source;
+                if (weights != null)
+                    weights[slot] = this.weights[i];
+                if (halfWeights != null)
+                    halfWeights[slot] = this.halfWeights[i];
+                if (byteWeights != null)
+                    byteWeights[slot] = this.byteWeights[i];
+                if (delays != null)
+                    delays[slot] = this.delays[i];
+            }
+        }
+
+        // the scales stay with the neurons whose rows were encoded, which swap sides
+        return new SynapseGraph(this.neuronCount, offsets, sources, this.encoding, weights, halfWeights, byteWeights, this.rowScales,
+                this.rowScales != null && !this.scalesByTarget, delays);
+    }
+
+    /**
+     * Returns the graph with every neuron {@code i} renamed {@code newIds[i]}: rows move to their
+     * new position, keeping the order of their synapses and the encoding of their weights.
+     */
+    SynapseGraph permute(int[] newIds) {
+        int count = this.targets.length;
+        int[] oldIds = new int[this.neuronCount];
+
+        for (int i = 0; i < this.neuronCount; i++)
+            oldIds[newIds[i]] = i;
+
+        int[] offsets = new int[this.neuronCount + 1];
+
+        for (int row = 0; row < this.neuronCount; row++)
+            offsets[row + 1] = offsets[row] + fanOut(oldIds[row]);
+
+        int[] targets = new int[count];
+        float[] weights = this.weights == null ? null : new float[count];
+        short[] halfWeights = this.halfWeights == null ? null : new short[count];
+        byte[] byteWeights = this.byteWeights == null ? null : new byte[count];
+        float[] rowScales = this.rowScales == null ? null : new float[this.neuronCount];
+        byte[] delays = this.delays == null ? null : new byte[count];
+
+        for (int row = 0; row < this.neuronCount; row++) {
+            int old = oldIds[row];
+            int from = this.offsets[old];
+            int length = this.offsets[old + 1] - from;
+            int to = offsets[row];
+
+            for (int k = 0; k < length; k++)
+                targets[to + k] = newIds[this.targets[from + k]];
+
+            if (weights != null)
+                System.arraycopy(this.weights, from, weights, to, length);
+            if (halfWeights != null)
+                System.arraycopy(this.halfWeights, from, halfWeights, to, length);
+            if (byteWeights != null)
+                System.arraycopy(this.byteWeights, from, byteWeights, to, length);
+            if (rowScales != null)
+                rowScales[row] = this.rowScales[old];
+            if (delays != null)
+                System.arraycopy(this.delays, from, delays, to, length);
+        }
+
+        return new SynapseGraph(this.neuronCount, offsets, targets, this.encoding, weights, halfWeights, byteWeights, rowScales, this.scalesByTarget, delays);
+    }
+
+    long footprintBytes() {
+        long weightBytes;
+
+        switch (this.encoding) {
+            case FLOAT16:
+                weightBytes = 2L * this.halfWeights.length;
+                break;
+            case INT8:
+                weightBytes = this.byteWeights.length + 4L * this.rowScales.length;
+                break;
+            default:
+                weightBytes = 4L * this.weights.length;
+                break;
+        }
+
+        return 4L * this.offsets.length + 4L * this.targets.length + weightBytes + (this.delays == null ? 0 : this.delays.length);
+    }
+
+    //region inner classes
+    /**
+     * Collects synapses in arbitrary order into growable primitive columns and sorts them into
+     * CSR form with a single counting pass in {@link #build()}.
+     */
+    static final class Builder {
+        private static final int INITIAL_CAPACITY = 1024;
+        private final int neuronCount;
+        private int[] sources;
+        private int[] targets;
+        private float[] weights;
+        // allocated on the first synapse with a non-default delay
+        private byte[] delays;
+        private int size;
+
+        Builder(int neuronCount) {
+            this(neuronCount, INITIAL_CAPACITY);
+        }
+
+        Builder(int neuronCount, int expectedSynapses) {
+            int capacity = Math.max(expectedSynapses, 1);
+
+            this.neuronCount = neuronCount;
+            this.sources = new int[capacity];
+            this.targets = new int[capacity];
+            this.weights = new float[capacity];
+        }
+
+        Builder add(int source, int target, float weight) {
+            return add(source, target, weight, DEFAULT_DELAY);
+        }
+
+        Builder add(int source, int target, float weight, int delay) {
+            if (delay < 1 || delay > MAX_DELAY)
+                throw new IllegalArgumentException(String.format("synaptic delay %d outside of [1, %d]", delay, MAX_DELAY));
+            if (source < 0 || source >= this.neuronCount || target < 0 || target >= this.neuronCount)
+                throw new IndexOutOfBoundsException(String.format("synapse %d -> %d outside of %d neurons", source, target, this.neuronCount));
+
+            if (this.size == this.sources.length)
+                grow();
+
+            this.sources[this.size] = source;
+            this.targets[this.size] = target;
+            this.weights[this.size] = weight;
+
+            if (delay != DEFAULT_DELAY && this.delays == null) {
+                this.delays = new byte[this.sources.length];
+                Arrays.fill(this.delays, 0, this.size, (byte) DEFAULT_DELAY);
+            }
+            if (this.delays != null)
+                this.delays[this.size] = (byte) delay;
+
+            this.size++;
+
+            return this;
+        }
+
+        Builder addAll(int[] sources, int[] targets, float[] weights) {
+            if (sources.length != targets.length || sources.length != weights.length)
+                throw new IllegalArgumentException("synapse columns differ in length");
+
+            for (int i = 0; i < sources.length; i++)
+                add(sources[i], targets[i], weights[i]);
+
+            return this;
+        }
+
+        /**
+         * Connects every neuron to each other neuron within {@code radius} of it with probability
+         * {@code probability}, visiting only the neighbourhoods found through {@code index}.
+         */
+        Builder connectWithin(SpatialIndex index, NeuronStore store, float radius, final float probability, final float weight, long seed) {
+            final Random random = new Random(seed);
+            final int[] source = new int[1];
+            SpatialIndex.Visitor visitor = new SpatialIndex.Visitor() {
+                @Override
+                public void visit(int neuron, float distanceSquared) {
+                    if (neuron != source[0] && random.nextFloat() < probability)
+                        add(source[0], neuron, weight);
+                }
+            };
+
+            for (int i = 0; i < store.count; i++) {
+                source[0] = i;
+                index.query(store.locationX[i], store.locationY[i], store.locationZ[i], radius, visitor);
+            }
+
+            return this;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        SynapseGraph build() {
+            int[] offsets = new int[this.neuronCount + 1];
+
+            for (int i = 0; i < this.size; i++)
+                offsets[this.sources[i] + 1]++;
+
+            for (int i = 0; i < this.neuronCount; i++)
+                offsets[i + 1] += offsets[i];
+
+            int[] cursor = Arrays.copyOf(offsets, this.neuronCount);
+            int[] targets = new int[this.size];
+            float[] weights = new float[this.size];
+            byte[] delays = this.delays == null ? null : new byte[this.size];
+
+            for (int i = 0; i < this.size; i++) {
+                int slot = cursor[this.sources[i]]++;
+
+                targets[slot] = this.targets[i];
+                weights[slot] = this.weights[i];
+                if (delays != null)
+                    delays[slot] = this.delays[i];
+            }
+
+            return new SynapseGraph(this.neuronCount, offsets, targets, weights, delays);
+        }
+
+        private void grow() {
+            int capacity = this.sources.length << 1;
+
+            this.sources = Arrays.copyOf(this.sources, capacity);
+            this.targets = Arrays.copyOf(this.targets, capacity);
+            this.weights = Arrays.copyOf(this.weights, capacity);
+            if (this.delays != null)
+                this.delays = Arrays.copyOf(this.delays, capacity);
+        }
+    }
+    //endregion
+}
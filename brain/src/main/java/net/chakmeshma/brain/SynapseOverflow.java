@@ -0,0 +1,235 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Live edits of a CSR {@link SynapseGraph}: synapses added since the graph was built sit in small
+ * per-source overflow segments, and removed synapses of the graph are tombstoned in place, their
+ * weight zeroed so that routing them has no effect. Tick paths route a source's graph row followed
+ * by its overflow segment; {@link #compact(SynapseGraph, BitSet)} folds both into a fresh graph.
+ * <p>
+ * A row's live synapses are its untombstoned graph synapses followed by its overflow segment, both
+ * in order; removals take the first live synapse between two neurons, so a compacted graph with
+ * the same removals replayed on it ends up holding exactly the same synapses.
+ */
+final class SynapseOverflow {
+    private static final int INITIAL_SEGMENT_CAPACITY = 4;
+    private int neuronCount;
+    private int[][] targets;
+    private float[][] weights;
+    private byte[][] delays;
+    private int[] counts;
+    // tombstones over the graph's synapse indices, allocated on the first removal
+    private long[] removed;
+    private int addedCount;
+    private int removedCount;
+    private int maxDelay;
+
+    SynapseOverflow(int neuronCount) {
+        this.neuronCount = neuronCount;
+        this.targets = new int[neuronCount][];
+        this.weights = new float[neuronCount][];
+        this.delays = new byte[neuronCount][];
+        this.counts = new int[neuronCount];
+        this.maxDelay = SynapseGraph.DEFAULT_DELAY;
+    }
+
+    /**
+     * Independent copy, for a compaction to read while this overflow keeps changing.
+     */
+    SynapseOverflow copy() {
+        SynapseOverflow copy = new SynapseOverflow(this.neuronCount);
+
+        for (int source = 0; source < this.neuronCount; source++) {
+            if (this.counts[source] == 0)
+                continue;
+
+            copy.targets[source] = Arrays.copyOf(this.targets[source], this.counts[source]);
+            copy.weights[source] = Arrays.copyOf(this.weights[source], this.counts[source]);
+            copy.delays[source] = Arrays.copyOf(this.delays[source], this.counts[source]);
+            copy.counts[source] = this.counts[source];
+        }
+
+        copy.removed = this.removed == null ? null : this.removed.clone();
+        copy.addedCount = this.addedCount;
+        copy.removedCount = this.removedCount;
+        copy.maxDelay = this.maxDelay;
+
+        return copy;
+    }
+
+    void grow(int neuronCount) {
+        this.targets = Arrays.copyOf(this.targets, neuronCount);
+        this.weights = Arrays.copyOf(this.weights, neuronCount);
+        this.delays = Arrays.copyOf(this.delays, neuronCount);
+        this.counts = Arrays.copyOf(this.counts, neuronCount);
+        this.neuronCount = neuronCount;
+    }
+
+    /**
+     * Number of edits a compaction would fold into the graph.
+     */
+    int size() {
+        return this.addedCount + this.removedCount;
+    }
+
+    int getMaxDelay() {
+        return this.maxDelay;
+    }
+
+    int count(int source) {
+        return this.counts[source];
+    }
+
+    int[] targets(int source) {
+        return this.targets[source];
+    }
+
+    float[] weights(int source) {
+        return this.weights[source];
+    }
+
+    byte[] delays(int source) {
+        return this.delays[source];
+    }
+
+    boolean isRemoved(int synapse) {
+        return this.removed != null && (this.removed[synapse >>> 6] & (1L << synapse)) != 0;
+    }
+
+    void add(int source, int target, float weight, int delay) {
+        int count = this.counts[source];
+
+        if (this.targets[source] == null) {
+            this.targets[source] = new int[INITIAL_SEGMENT_CAPACITY];
+            this.weights[source] = new float[INITIAL_SEGMENT_CAPACITY];
+            this.delays[source] = new byte[INITIAL_SEGMENT_CAPACITY];
+        } else if (count == this.targets[source].length) {
+            this.targets[source] = Arrays.copyOf(this.targets[source], count << 1);
+            this.weights[source] = Arrays.copyOf(this.weights[source], count << 1);
+            this.delays[source] = Arrays.copyOf(this.delays[source], count << 1);
+        }
+
+        this.targets[source][count] = target;
+        this.weights[source][count] = weight;
+        this.delays[source][count] = (byte) delay;
+        this.counts[source] = count + 1;
+        this.addedCount++;
+        this.maxDelay = Math.max(this.maxDelay, delay);
+    }
+
+    /**
+     * Removes the first live synapse from {@code source} to {@code target}, returning whether
+     * there was one.
+     */
+    boolean remove(SynapseGraph graph, int source, int target) {
+        for (int i = graph.offsets[source], end = graph.offsets[source + 1]; i < end; i++) {
+            if (graph.targets[i] == target && !isRemoved(i)) {
+                tombstone(graph, i);
+                return true;
+            }
+        }
+
+        int[] targets = this.targets[source];
+
+        for (int k = 0, count = this.counts[source]; k < count; k++) {
+            if (targets[k] != target)
+                continue;
+
+            int tail = count - k - 1;
+
+            System.arraycopy(targets, k + 1, targets, k, tail);
+            System.arraycopy(this.weights[source], k + 1, this.weights[source], k, tail);
+            System.arraycopy(this.delays[source], k + 1, this.delays[source], k, tail);
+            this.counts[source]--;
+            this.addedCount--;
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes every outgoing synapse of {@code source}.
+     */
+    void removeAll(SynapseGraph graph, int source) {
+        for (int i = graph.offsets[source], end = graph.offsets[source + 1]; i < end; i++)
+            if (!isRemoved(i))
+                tombstone(graph, i);
+
+        this.addedCount -= this.counts[source];
+        this.counts[source] = 0;
+        this.targets[source] = null;
+        this.weights[source] = null;
+        this.delays[source] = null;
+    }
+
+    private void tombstone(SynapseGraph graph, int synapse) {
+        if (this.removed == null)
+            this.removed = new long[(graph.getSynapseCount() + 63) >>> 6];
+
+        this.removed[synapse >>> 6] |= 1L << synapse;
+        this.removedCount++;
+        graph.weights[synapse] = 0.0f;
+    }
+
+    /**
+     * Builds the graph of the live synapses of {@code graph} with these edits, leaving out the
+     * synapses onto neurons in {@code dead}. Reads nothing but this overflow and the graph, so it
+     * can run on any thread while the simulation carries on with the graph and another overflow.
+     */
+    SynapseGraph compact(SynapseGraph graph, BitSet dead) {
+        int[] offsets = new int[this.neuronCount + 1];
+
+        for (int source = 0; source < this.neuronCount; source++) {
+            int live = 0;
+
+            if (source < graph.neuronCount)
+                for (int i = graph.offsets[source], end = graph.offsets[source + 1]; i < end; i++)
+                    if (!isRemoved(i) && !dead.get(graph.targets[i]))
+                        live++;
+
+            for (int k = 0; k < this.counts[source]; k++)
+                if (!dead.get(this.targets[source][k]))
+                    live++;
+
+            offsets[source + 1] = offsets[source] + live;
+        }
+
+        int size = offsets[this.neuronCount];
+        int[] targets = new int[size];
+        float[] weights = new float[size];
+        byte[] delays = graph.delays == null && this.maxDelay == SynapseGraph.DEFAULT_DELAY ? null : new byte[size];
+        int slot = 0;
+
+        for (int source = 0; source < this.neuronCount; source++) {
+            if (source < graph.neuronCount) {
+                for (int i = graph.offsets[source], end = graph.offsets[source + 1]; i < end; i++) {
+                    if (isRemoved(i) || dead.get(graph.targets[i]))
+                        continue;
+
+                    targets[slot] = graph.targets[i];
+                    weights[slot] = graph.weights[i];
+                    if (delays != null)
+                        delays[slot] = (byte) graph.delay(i);
+                    slot++;
+                }
+            }
+
+            for (int k = 0; k < this.counts[source]; k++) {
+                if (dead.get(this.targets[source][k]))
+                    continue;
+
+                targets[slot] = this.targets[source][k];
+                weights[slot] = this.weights[source][k];
+                if (delays != null)
+                    delays[slot] = this.delays[source][k];
+                slot++;
+            }
+        }
+
+        return new SynapseGraph(this.neuronCount, offsets, targets, weights, delays);
+    }
+}
@@ -0,0 +1,205 @@
+package net.chakmeshma.brain;
+
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Fixed pool of worker threads (one per core) that sweeps a range of neurons once per tick.
+ * <p>
+ * The range is split into as many contiguous partitions as there are workers, partition
+ * {@code p} always being handled by worker {@code p}, so per-partition state never has to be
+ * shared between threads inside a tick. Partitions are equal in size unless explicit boundaries
+ * are set, e.g. from a {@link GraphPartitioner}.
+ */
+final class TickScheduler {
+    private final int partitionCount;
+    private final Worker[] workers;
+    private final CyclicBarrier tickStart;
+    private final CyclicBarrier tickEnd;
+    private volatile int[] boundaries;
+    private volatile TickTask task;
+    private volatile int count;
+    private volatile long tick;
+    private volatile boolean running;
+    private volatile Throwable failure;
+
+    TickScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    TickScheduler(int partitionCount) {
+        if (partitionCount < 1)
+            throw new IllegalArgumentException("partition count must be positive");
+
+        this.partitionCount = partitionCount;
+        this.tickStart = new CyclicBarrier(partitionCount + 1);
+        this.tickEnd = new CyclicBarrier(partitionCount + 1);
+        this.workers = new Worker[partitionCount];
+        this.running = true;
+
+        for (int i = 0; i < partitionCount; i++) {
+            workers[i] = new Worker(i);
+            workers[i].start();
+        }
+    }
+
+    static int partitionStart(int partition, int partitionCount, int count) {
+        return (int) ((long) count * partition / partitionCount);
+    }
+
+    int getPartitionCount() {
+        return this.partitionCount;
+    }
+
+    /**
+     * Splits ranges of {@code boundaries[partitionCount]} neurons at the given starts instead of
+     * evenly, partition {@code p} covering {@code [boundaries[p], boundaries[p + 1])}; ranges of
+     * any other size are still split evenly. Must not be called during a tick.
+     */
+    void setBoundaries(int[] boundaries) {
+        if (boundaries.length != this.partitionCount + 1 || boundaries[0] != 0)
+            throw new IllegalArgumentException("boundaries must hold partitionCount + 1 starts, the first being 0");
+
+        for (int p = 0; p < this.partitionCount; p++)
+            if (boundaries[p] > boundaries[p + 1])
+                throw new IllegalArgumentException("partition boundaries must not decrease");
+
+        this.boundaries = boundaries.clone();
+    }
+
+    /**
+     * Explicit partition boundaries, or {@code null} when partitions are split evenly.
+     */
+    int[] getBoundaries() {
+        int[] boundaries = this.boundaries;
+
+        return boundaries == null ? null : boundaries.clone();
+    }
+
+    int partitionStart(int partition, int count) {
+        int[] boundaries = this.boundaries;
+
+        if (boundaries != null && boundaries[this.partitionCount] == count)
+            return boundaries[partition];
+
+        return partitionStart(partition, this.partitionCount, count);
+    }
+
+    /**
+     * Returns the partition whose range contains {@code neuron}: the last partition {@code p}
+     * with {@code partitionStart(p) <= neuron}.
+     */
+    static int partitionOf(int neuron, int partitionCount, int count) {
+        return (int) (((neuron + 1L) * partitionCount - 1) / count);
+    }
+
+    int partitionOf(int neuron, int count) {
+        int[] boundaries = this.boundaries;
+
+        if (boundaries == null || boundaries[this.partitionCount] != count)
+            return partitionOf(neuron, this.partitionCount, count);
+
+        // the last start at or before the neuron, which skips empty partitions
+        int low = 0, high = this.partitionCount - 1;
+
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+
+            if (boundaries[middle] <= neuron)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+
+        return low;
+    }
+
+    /**
+     * Runs {@code task} over {@code [0, count)} on all workers and returns once every partition
+     * has been processed.
+     */
+    void runTick(TickTask task, int count, long tick) {
+        if (!this.running)
+            throw new IllegalStateException("scheduler has been shut down");
+
+        this.task = task;
+        this.count = count;
+        this.tick = tick;
+        this.failure = null;
+
+        await(this.tickStart);
+        await(this.tickEnd);
+
+        this.task = null;
+
+        Throwable failure = this.failure;
+        if (failure != null)
+            throw new IllegalStateException("tick " + tick + " failed", failure);
+    }
+
+    void shutdown() {
+        if (!this.running)
+            return;
+
+        this.running = false;
+
+        for (Worker worker : this.workers)
+            worker.interrupt();
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for tick workers", e);
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("tick workers are no longer running", e);
+        }
+    }
+
+    //region inner classes
+    interface TickTask {
+        void process(int partition, int from, int to, long tick);
+    }
+
+    private final class Worker extends Thread {
+        private final int partition;
+
+        Worker(int partition) {
+            super("brain-tick-" + partition);
+
+            this.partition = partition;
+
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (TickScheduler.this.running) {
+                try {
+                    TickScheduler.this.tickStart.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    return;
+                }
+
+                int count = TickScheduler.this.count;
+                int from = partitionStart(this.partition, count);
+                int to = partitionStart(this.partition + 1, count);
+
+                try {
+                    TickScheduler.this.task.process(this.partition, from, to, TickScheduler.this.tick);
+                } catch (Throwable t) {
+                    TickScheduler.this.failure = t;
+                }
+
+                try {
+                    TickScheduler.this.tickEnd.await();
+                } catch (InterruptedException | BrokenBarrierException e) {
+                    return;
+                }
+            }
+        }
+    }
+    //endregion
+}
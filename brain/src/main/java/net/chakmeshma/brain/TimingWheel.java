@@ -0,0 +1,206 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical timing wheel of pending spike deliveries keyed on delivery tick.
+ * <p>
+ * Level {@code l} has {@link #SLOTS} slots each spanning {@code SLOTS^l} ticks; deliveries far in
+ * the future sit in a coarse level and are cascaded down as the wheel turns. Every slot is an
+ * intrusive singly linked list over pooled primitive columns, so scheduling and draining never
+ * allocate once the pool has grown to the peak number of in-flight deliveries.
+ */
+final class TimingWheel {
+    static final int SLOT_BITS = 8;
+    static final int SLOTS = 1 << SLOT_BITS;
+    static final int LEVELS = 4;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int NIL = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private final int[] heads;
+    private int[] next;
+    private long[] when;
+    private int[] target;
+    private float[] weight;
+    private int free;
+    private int allocated;
+    private int size;
+    private long now;
+
+    TimingWheel() {
+        this(0L);
+    }
+
+    TimingWheel(long now) {
+        this.heads = new int[LEVELS * SLOTS];
+        this.next = new int[INITIAL_CAPACITY];
+        this.when = new long[INITIAL_CAPACITY];
+        this.target = new int[INITIAL_CAPACITY];
+        this.weight = new float[INITIAL_CAPACITY];
+        this.free = NIL;
+        this.now = now;
+
+        Arrays.fill(this.heads, NIL);
+    }
+
+    private TimingWheel(TimingWheel origin) {
+        this.heads = origin.heads.clone();
+        this.next = origin.next.clone();
+        this.when = origin.when.clone();
+        this.target = origin.target.clone();
+        this.weight = origin.weight.clone();
+        this.free = origin.free;
+        this.allocated = origin.allocated;
+        this.size = origin.size;
+        this.now = origin.now;
+    }
+
+    /**
+     * Independent copy holding the same deliveries, which it hands out in the same order.
+     */
+    TimingWheel copy() {
+        return new TimingWheel(this);
+    }
+
+    static long getMaxDelay() {
+        return (1L << (SLOT_BITS * LEVELS)) - 1;
+    }
+
+    long getNow() {
+        return this.now;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    void schedule(long deliveryTick, int target, float weight) {
+        if (deliveryTick < this.now)
+            throw new IllegalArgumentException(String.format("delivery tick %d is in the past (now %d)", deliveryTick, this.now));
+        if (deliveryTick - this.now > getMaxDelay())
+            throw new IllegalArgumentException(String.format("delivery tick %d is beyond the wheel horizon", deliveryTick));
+
+        int node = allocate();
+
+        this.when[node] = deliveryTick;
+        this.target[node] = target;
+        this.weight[node] = weight;
+
+        link(node);
+        this.size++;
+    }
+
+    /**
+     * Hands every delivery due at the current tick to {@code sink} and turns the wheel to the
+     * next tick.
+     */
+    void advance(DeliverySink sink) {
+        int index = (int) (this.now & SLOT_MASK);
+
+        if (index == 0)
+            cascade(1);
+
+        int slot = index;
+        int node = this.heads[slot];
+        this.heads[slot] = NIL;
+
+        while (node != NIL) {
+            int following = this.next[node];
+
+            sink.deliver(this.target[node], this.weight[node]);
+
+            release(node);
+            this.size--;
+            node = following;
+        }
+
+        this.now++;
+    }
+
+    void forEachPending(PendingVisitor visitor) {
+        for (int slot = 0; slot < this.heads.length; slot++)
+            for (int node = this.heads[slot]; node != NIL; node = this.next[node])
+                visitor.visit(this.when[node], this.target[node], this.weight[node]);
+    }
+
+    void clear() {
+        Arrays.fill(this.heads, NIL);
+
+        this.free = NIL;
+        this.allocated = 0;
+        this.size = 0;
+    }
+
+    private void cascade(int level) {
+        if (level >= LEVELS)
+            return;
+
+        int index = (int) ((this.now >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+        if (index == 0)
+            cascade(level + 1);
+
+        int slot = level * SLOTS + index;
+        int node = this.heads[slot];
+        this.heads[slot] = NIL;
+
+        while (node != NIL) {
+            int following = this.next[node];
+
+            link(node);
+            node = following;
+        }
+    }
+
+    private void link(int node) {
+        long deliveryTick = this.when[node];
+        long delta = deliveryTick - this.now;
+        int level = 0;
+
+        while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1))))
+            level++;
+
+        int slot = level * SLOTS + (int) ((deliveryTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+
+        this.next[node] = this.heads[slot];
+        this.heads[slot] = node;
+    }
+
+    private int allocate() {
+        if (this.free != NIL) {
+            int node = this.free;
+            this.free = this.next[node];
+            return node;
+        }
+
+        if (this.allocated == this.next.length) {
+            int capacity = this.next.length << 1;
+
+            this.next = Arrays.copyOf(this.next, capacity);
+            this.when = Arrays.copyOf(this.when, capacity);
+            this.target = Arrays.copyOf(this.target, capacity);
+            this.weight = Arrays.copyOf(this.weight, capacity);
+        }
+
+        return this.allocated++;
+    }
+
+    private void release(int node) {
+        this.next[node] = this.free;
+        this.free = node;
+    }
+
+    //region inner classes
+    interface DeliverySink {
+        void deliver(int target, float weight);
+    }
+
+    interface PendingVisitor {
+        void visit(long deliveryTick, int target, float weight);
+    }
+    //endregion
+}
@@ -0,0 +1,167 @@
+package net.chakmeshma.brain;
+
+import java.util.Arrays;
+
+/**
+ * Staged topology mutations, recorded by any thread and handed in order to the simulation thread
+ * at a tick boundary, so no tick ever sees the neurons or synapses change under it.
+ * <p>
+ * The log also hands out neuron ids, so that an added neuron can be wired up before it exists:
+ * ids of removed neurons are reused once they have been released, otherwise ids continue past
+ * the highest one given out.
+ */
+final class TopologyLog {
+    static final byte ADD_NEURON = 0;
+    static final byte REMOVE_NEURON = 1;
+    static final byte ADD_SYNAPSE = 2;
+    static final byte REMOVE_SYNAPSE = 3;
+    private Entries entries = new Entries();
+    private Entries spare = new Entries();
+    private int[] free = new int[0];
+    private int freeCount;
+    private int idLimit;
+
+    TopologyLog(int neuronCount) {
+        this.idLimit = neuronCount;
+    }
+
+    /**
+     * Returns an empty log that goes on handing out ids where this one stands.
+     */
+    synchronized TopologyLog fork() {
+        TopologyLog fork = new TopologyLog(this.idLimit);
+
+        fork.free = Arrays.copyOf(this.free, this.freeCount);
+        fork.freeCount = this.freeCount;
+
+        return fork;
+    }
+
+    /**
+     * Number of neuron ids handed out so far, released ones included.
+     */
+    synchronized int getIdLimit() {
+        return this.idLimit;
+    }
+
+    synchronized int size() {
+        return this.entries.size;
+    }
+
+    /**
+     * Hands out an id for a new neuron and stages its creation.
+     */
+    synchronized int addNeuron(int threshold, float x, float y, float z) {
+        int id = this.freeCount > 0 ? this.free[--this.freeCount] : this.idLimit++;
+
+        this.entries.append(ADD_NEURON, id, threshold, 0, x, y, z);
+
+        return id;
+    }
+
+    synchronized void removeNeuron(int id) {
+        this.entries.append(REMOVE_NEURON, id, 0, 0, 0.0f, 0.0f, 0.0f);
+    }
+
+    synchronized void addSynapse(int source, int target, float weight, int delay) {
+        this.entries.append(ADD_SYNAPSE, source, target, delay, weight, 0.0f, 0.0f);
+    }
+
+    synchronized void removeSynapse(int source, int target) {
+        this.entries.append(REMOVE_SYNAPSE, source, target, 0, 0.0f, 0.0f, 0.0f);
+    }
+
+    /**
+     * Makes the ids of removed neurons available to {@link #addNeuron} again.
+     */
+    synchronized void release(int[] ids, int count) {
+        if (this.freeCount + count > this.free.length)
+            this.free = Arrays.copyOf(this.free, Math.max(this.freeCount + count, this.free.length << 1));
+
+        System.arraycopy(ids, 0, this.free, this.freeCount, count);
+        this.freeCount += count;
+    }
+
+    /**
+     * Hands every staged mutation to {@code visitor} in the order it was staged and clears the
+     * log. Must only be called from the simulation thread; staging goes on meanwhile.
+     */
+    int drain(MutationVisitor visitor) {
+        Entries drained;
+
+        synchronized (this) {
+            drained = this.entries;
+            this.entries = this.spare;
+            this.spare = drained;
+        }
+
+        for (int i = 0; i < drained.size; i++) {
+            switch (drained.ops[i]) {
+                case ADD_NEURON:
+                    visitor.addNeuron(drained.first[i], drained.second[i], drained.values[3 * i], drained.values[3 * i + 1], drained.values[3 * i + 2]);
+                    break;
+                case REMOVE_NEURON:
+                    visitor.removeNeuron(drained.first[i]);
+                    break;
+                case ADD_SYNAPSE:
+                    visitor.addSynapse(drained.first[i], drained.second[i], drained.values[3 * i], drained.third[i]);
+                    break;
+                default:
+                    visitor.removeSynapse(drained.first[i], drained.second[i]);
+                    break;
+            }
+        }
+
+        int count = drained.size;
+        drained.size = 0;
+
+        return count;
+    }
+
+    //region inner classes
+    interface MutationVisitor {
+        void addNeuron(int id, int threshold, float x, float y, float z);
+
+        void removeNeuron(int id);
+
+        void addSynapse(int source, int target, float weight, int delay);
+
+        void removeSynapse(int source, int target);
+    }
+
+    /**
+     * Growable columns of staged mutations; {@code values} holds three floats per entry, the
+     * weight of a synapse or the location of a neuron.
+     */
+    private static final class Entries {
+        private static final int INITIAL_CAPACITY = 64;
+        byte[] ops = new byte[INITIAL_CAPACITY];
+        int[] first = new int[INITIAL_CAPACITY];
+        int[] second = new int[INITIAL_CAPACITY];
+        int[] third = new int[INITIAL_CAPACITY];
+        float[] values = new float[3 * INITIAL_CAPACITY];
+        int size;
+
+        void append(byte op, int first, int second, int third, float value0, float value1, float value2) {
+            if (this.size == this.ops.length) {
+                int capacity = this.size << 1;
+
+                this.ops = Arrays.copyOf(this.ops, capacity);
+                this.first = Arrays.copyOf(this.first, capacity);
+                this.second = Arrays.copyOf(this.second, capacity);
+                this.third = Arrays.copyOf(this.third, capacity);
+                this.values = Arrays.copyOf(this.values, 3 * capacity);
+            }
+
+            this.ops[this.size] = op;
+            this.first[this.size] = first;
+            this.second[this.size] = second;
+            this.third[this.size] = third;
+            this.values[3 * this.size] = value0;
+            this.values[3 * this.size + 1] = value1;
+            this.values[3 * this.size + 2] = value2;
+            this.size++;
+        }
+    }
+    //endregion
+}
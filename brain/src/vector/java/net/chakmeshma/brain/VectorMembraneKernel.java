@@ -0,0 +1,64 @@
+package net.chakmeshma.brain;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link MembraneKernel} on the Vector API. Lives in the {@code vector} source set because it
+ * needs Java 21 and {@code jdk.incubator.vector}; {@link MembraneKernels} loads it by name.
+ * <p>
+ * Branches of the scalar kernel become lane masks. Decay and integration are kept as a separate
+ * multiply and add, never fused, and thresholds are widened to float exactly as Java's mixed
+ * comparison does, so every lane matches {@link ScalarMembraneKernel} bit for bit. The tail that
+ * does not fill a vector is handed to the scalar kernel.
+ */
+final class VectorMembraneKernel implements MembraneKernel {
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = FLOATS.length();
+
+    VectorMembraneKernel() {
+        if (INTS.length() != LANES)
+            throw new IllegalStateException("float and int vector species differ in lane count");
+    }
+
+    @Override
+    public int update(NeuronStore store, int from, int to) {
+        final int[] threshold = store.threshold;
+        final float[] potential = store.potential;
+        final float[] input = store.input;
+        final int[] refractory = store.refractory;
+        final byte[] fired = store.fired;
+        final FloatVector decay = FloatVector.broadcast(FLOATS, store.decay);
+        final FloatVector reset = FloatVector.broadcast(FLOATS, store.resetPotential);
+        final IntVector period = IntVector.broadcast(INTS, store.refractoryPeriod);
+        final FloatVector zero = FloatVector.zero(FLOATS);
+        int spikes = 0;
+        int i = from;
+
+        for (int bound = from + ((to - from) / LANES) * LANES; i < bound; i += LANES) {
+            FloatVector v = FloatVector.fromArray(FLOATS, potential, i).mul(decay).add(FloatVector.fromArray(FLOATS, input, i));
+            IntVector remaining = IntVector.fromArray(INTS, refractory, i);
+            FloatVector limit = (FloatVector) IntVector.fromArray(INTS, threshold, i).convert(VectorOperators.I2F, 0);
+
+            VectorMask<Integer> resting = remaining.compare(VectorOperators.GT, 0);
+            VectorMask<Integer> firing = v.compare(VectorOperators.GE, limit).cast(INTS).andNot(resting);
+            VectorMask<Float> held = resting.or(firing).cast(FLOATS);
+
+            v.blend(reset, held).intoArray(potential, i);
+            remaining.sub(1, resting).blend(period, firing).intoArray(refractory, i);
+            zero.intoArray(input, i);
+
+            long bits = firing.toLong();
+            for (int lane = 0; lane < LANES; lane++)
+                fired[i + lane] = (byte) ((bits >>> lane) & 1L);
+
+            spikes += Long.bitCount(bits);
+        }
+
+        return spikes + ScalarMembraneKernel.INSTANCE.update(store, i, to);
+    }
+}